@@ -25,6 +25,12 @@ android {
                 "proguard-rules.pro"
             )
         }
+        // Release settings signed with the debug key, measured by the :benchmark module
+        create("benchmark") {
+            initWith(getByName("release"))
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
@@ -0,0 +1,97 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.core.content.ContextCompat;
+
+// Column of # A-Z section letters beside the contact list
+// Touching or dragging along it reports the section under the finger, the activity jumps the list there
+public class AlphabetScrollerView extends View {
+    private final Paint letterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint selectedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private OnSectionSelectedListener sectionSelectedListener;
+    // Section under the finger, -1 when not touched
+    private int selectedSection = -1;
+
+    public AlphabetScrollerView(Context context) {
+        this(context, null);
+    }
+
+    public AlphabetScrollerView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float textSize = getResources().getDimension(R.dimen.alphabet_scroller_text_size);
+        letterPaint.setTextSize(textSize);
+        letterPaint.setTextAlign(Paint.Align.CENTER);
+        letterPaint.setColor(ContextCompat.getColor(context, R.color.grey));
+        selectedPaint.setTextSize(textSize);
+        selectedPaint.setTextAlign(Paint.Align.CENTER);
+        selectedPaint.setFakeBoldText(true);
+        selectedPaint.setColor(ContextCompat.getColor(context, R.color.purple_500));
+    }
+
+    // Receive the section of ContactNameIndex.SECTIONS under the finger
+    public interface OnSectionSelectedListener {
+        void onSectionSelected(int section);
+    }
+
+    public void setOnSectionSelectedListener(OnSectionSelectedListener listener) {
+        sectionSelectedListener = listener;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int sectionCount = ContactNameIndex.SECTIONS.length();
+        float sectionHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) sectionCount;
+        float x = getWidth() / 2f;
+        // Centre each letter vertically in its slot
+        float baselineOffset = (sectionHeight - letterPaint.ascent() - letterPaint.descent()) / 2f;
+        for (int section = 0; section < sectionCount; section++) {
+            float y = getPaddingTop() + section * sectionHeight + baselineOffset;
+            canvas.drawText(ContactNameIndex.SECTIONS, section, section + 1, x, y,
+                    section == selectedSection ? selectedPaint : letterPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // Keep the list from treating the drag as its own scroll
+                getParent().requestDisallowInterceptTouchEvent(true);
+                selectSection(event.getY());
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                selectSection(event.getY());
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                selectedSection = -1;
+                invalidate();
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    // Only report a section when the finger moves into a new one
+    private void selectSection(float y) {
+        int sectionCount = ContactNameIndex.SECTIONS.length();
+        float sectionHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) sectionCount;
+        int section = (int) ((y - getPaddingTop()) / sectionHeight);
+        section = Math.max(0, Math.min(sectionCount - 1, section));
+        if (section == selectedSection) {
+            return;
+        }
+        selectedSection = section;
+        invalidate();
+        if (sectionSelectedListener != null) {
+            sectionSelectedListener.onSectionSelected(section);
+        }
+    }
+}
@@ -9,4 +9,7 @@ public class AvatarConstants {
 
     public static final int DEFAULT_AVATAR = R.drawable.avatar_1;
 
+    // Avatar number stored in the database for the default avatar
+    public static final int DEFAULT_AVATAR_NUMBER = 1;
+
 }
@@ -0,0 +1,289 @@
+package com.example.contactdatabase;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Decodes avatars and contact photos once at the size they are shown and keeps the bitmaps in a memory-bounded cache
+// Photo thumbnails are also kept on disk, so a photo is only decoded in full the first time it is shown
+// Decoding runs on a background thread, binding a row only sets a cached bitmap
+public class AvatarLoader {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Share of the heap the decoded bitmaps may use
+    private static final int MEMORY_FRACTION = 8;
+    private static final long THUMBNAIL_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private static AvatarLoader instance;
+
+    private final Resources resources;
+    private final int avatarSize;
+    private final ContactPhotos contactPhotos;
+    private final ThumbnailDiskCache thumbnailCache;
+    private final ExecutorService decodeExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Decoded bitmaps keyed by avatar and size, sized in bytes so large bitmaps evict more
+    private final LruCache<String, Bitmap> bitmaps =
+            new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MEMORY_FRACTION)) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+    // Views waiting for each bitmap still to be decoded, so rows showing the same bitmap share one decode
+    // A row rebound to another contact leaves its list, a decode nobody waits for any more is skipped
+    private final HashMap<String, List<ImageView>> pendingViews = new HashMap<>();
+
+    private AvatarLoader(Context context) {
+        Context appContext = context.getApplicationContext();
+        resources = appContext.getResources();
+        avatarSize = resources.getDimensionPixelSize(R.dimen.avatar_size);
+        contactPhotos = new ContactPhotos(appContext);
+        thumbnailCache = new ThumbnailDiskCache(new File(appContext.getCacheDir(), "avatar_thumbnails"), THUMBNAIL_CACHE_BYTES);
+
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "AvatarLoader-decode");
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+        decodeExecutor = threadPool;
+    }
+
+    // Get the process-wide loader
+    public static synchronized AvatarLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new AvatarLoader(context);
+        }
+        return instance;
+    }
+
+    // Photo files shared by the loader and the screens that pick photos
+    public ContactPhotos getContactPhotos() {
+        return contactPhotos;
+    }
+
+    // A decode run on the background thread
+    private interface Decode {
+        Bitmap run();
+    }
+
+    // Show a contact's photo, or its bundled avatar when it has none
+    public void loadAvatar(ImageView view, Contact contact) {
+        if (contact.getPhoto() != null) {
+            loadPhoto(view, contact.getPhoto());
+        } else {
+            loadAvatar(view, contact.getAvatarId());
+        }
+    }
+
+    // Show a bundled avatar by its stored avatar number
+    public void loadAvatar(ImageView view, int avatarNumber) {
+        int resourceId = getAvatarResource(avatarNumber);
+        String key = getKey(resourceId);
+        load(view, key, () -> decodeAvatar(resourceId, key));
+    }
+
+    // Show a photo saved by ContactPhotos
+    public void loadPhoto(ImageView view, String photoName) {
+        String key = photoName + "@" + avatarSize;
+        load(view, key, () -> decodePhoto(photoName, key));
+    }
+
+    // Set the bitmap from the cache when possible or once it has been decoded
+    // The view remembers which bitmap it is waiting for, so a recycled row never shows a late result
+    private void load(ImageView view, String key, Decode decode) {
+        Object previousKey = view.getTag(R.id.contactAvatar);
+        view.setTag(R.id.contactAvatar, key);
+
+        Bitmap cached = bitmaps.get(key);
+        boolean decodeQueued;
+        synchronized (pendingViews) {
+            if (previousKey != null && !previousKey.equals(key)) {
+                List<ImageView> previousViews = pendingViews.get(previousKey);
+                if (previousViews != null) {
+                    previousViews.remove(view);
+                }
+            }
+            if (cached != null) {
+                view.setImageBitmap(cached);
+                return;
+            }
+            List<ImageView> views = pendingViews.get(key);
+            decodeQueued = views != null;
+            if (views == null) {
+                views = new ArrayList<>();
+                pendingViews.put(key, views);
+            }
+            if (!views.contains(view)) {
+                views.add(view);
+            }
+        }
+
+        view.setImageDrawable(null);
+        if (decodeQueued) {
+            return;
+        }
+        decodeExecutor.execute(() -> {
+            // During a fling most queued rows have scrolled away before their turn
+            synchronized (pendingViews) {
+                if (pendingViews.get(key).isEmpty()) {
+                    pendingViews.remove(key);
+                    return;
+                }
+            }
+            Bitmap bitmap = decode.run();
+            mainHandler.post(() -> {
+                List<ImageView> views;
+                synchronized (pendingViews) {
+                    views = pendingViews.remove(key);
+                }
+                if (bitmap == null || views == null) {
+                    return;
+                }
+                for (ImageView waitingView : views) {
+                    if (key.equals(waitingView.getTag(R.id.contactAvatar))) {
+                        waitingView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        });
+    }
+
+    // Decode every bundled avatar ahead of the first bind, e.g. while the list is loading
+    public void prewarm() {
+        for (int resourceId : AvatarConstants.AVATAR_RESOURCES) {
+            decodeExecutor.execute(() -> decodeAvatar(resourceId, getKey(resourceId)));
+        }
+    }
+
+    // Copy a picked image into app storage in the background, the callback receives its file name or null
+    public void savePhoto(Uri imageUri, ContactRepository.Callback<String> callback) {
+        decodeExecutor.execute(() -> {
+            String photoName = contactPhotos.savePhoto(imageUri);
+            mainHandler.post(() -> callback.onResult(photoName));
+        });
+    }
+
+    // Give memory back when the system asks, the bitmaps are decoded again on the next bind
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            bitmaps.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            bitmaps.trimToSize(bitmaps.maxSize() / 2);
+        }
+    }
+
+    // Avatar numbers outside the bundled set fall back to the default avatar
+    private static int getAvatarResource(int avatarNumber) {
+        int index = avatarNumber - 1;
+        if (index >= 0 && index < AvatarConstants.AVATAR_RESOURCES.length) {
+            return AvatarConstants.AVATAR_RESOURCES[index];
+        }
+        return AvatarConstants.DEFAULT_AVATAR;
+    }
+
+    private String getKey(int resourceId) {
+        return resourceId + "@" + avatarSize;
+    }
+
+    // Runs on the decode thread, a bitmap decoded by an earlier request is reused
+    private Bitmap decodeAvatar(int resourceId, String key) {
+        Bitmap cached = bitmaps.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            // Read the dimensions only, then decode at the smallest power of two scale still covering the view
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(resources, resourceId, options);
+            options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, avatarSize);
+            options.inJustDecodeBounds = false;
+
+            Bitmap bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+            if (bitmap != null) {
+                bitmaps.put(key, bitmap);
+            }
+            return bitmap;
+        } catch (Exception e) {
+            Log.e("AvatarLoader", "Error decoding avatar", e);
+            return null;
+        }
+    }
+
+    // Runs on the decode thread, memory first, then the disk thumbnail, then the full photo
+    private Bitmap decodePhoto(String photoName, String key) {
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        try {
+            bitmap = thumbnailCache.get(key);
+            if (bitmap == null) {
+                String photoPath = contactPhotos.getPhotoFile(photoName).getPath();
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeFile(photoPath, options);
+                options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight, avatarSize);
+                options.inJustDecodeBounds = false;
+
+                Bitmap photo = BitmapFactory.decodeFile(photoPath, options);
+                if (photo == null) {
+                    return null;
+                }
+                bitmap = scaleToCover(photo, avatarSize);
+                thumbnailCache.put(key, bitmap);
+            }
+            bitmaps.put(key, bitmap);
+            return bitmap;
+        } catch (Exception e) {
+            Log.e("AvatarLoader", "Error decoding photo", e);
+            return null;
+        }
+    }
+
+    // Largest power of two that keeps both sides at least the requested size
+    static int calculateSampleSize(int width, int height, int requestedSize) {
+        int sampleSize = 1;
+        if (requestedSize <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= requestedSize && height / (sampleSize * 2) >= requestedSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Scale a bitmap so its shorter side matches the view, the view crops the rest
+    private static Bitmap scaleToCover(Bitmap bitmap, int size) {
+        int shortestSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (shortestSide <= size) {
+            return bitmap;
+        }
+        float scale = (float) size / shortestSide;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+}
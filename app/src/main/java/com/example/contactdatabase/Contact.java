@@ -1,18 +1,23 @@
 package com.example.contactdatabase;
 
+import java.util.Objects;
+
 public class Contact {
    private final int id;
    private final int avatarId;
    private final String name;
    private final String email;
    private final String dateOfBirth;
+   // File name of the contact's own photo, null when a bundled avatar is used
+   private final String photo;
 
-    public Contact(int id, int avatarId, String name, String email, String dateOfBirth) {
+    public Contact(int id, int avatarId, String name, String email, String dateOfBirth, String photo) {
         this.id = id;
         this.avatarId = avatarId;
         this.name = name;
         this.email = email;
         this.dateOfBirth = dateOfBirth;
+        this.photo = photo;
     }
     public int getId() {
         return id;
@@ -33,4 +38,31 @@ public class Contact {
         return dateOfBirth;
     }
 
+    public String getPhoto() {
+        return photo;
+    }
+
+    // Two contacts are equal when every stored field matches
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Contact)) {
+            return false;
+        }
+        Contact contact = (Contact) other;
+        return id == contact.id &&
+                avatarId == contact.avatarId &&
+                Objects.equals(name, contact.name) &&
+                Objects.equals(email, contact.email) &&
+                Objects.equals(dateOfBirth, contact.dateOfBirth) &&
+                Objects.equals(photo, contact.photo);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, avatarId, name, email, dateOfBirth, photo);
+    }
+
 }
@@ -1,12 +1,12 @@
 package com.example.contactdatabase;
 
 import android.graphics.PorterDuff;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.Button;
-import android.content.Intent;
 import android.view.View;
 import android.widget.ImageView;
 
@@ -16,6 +16,9 @@ import android.widget.Toast;
 import java.util.Calendar;
 
 import androidx.activity.EdgeToEdge;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.PickVisualMediaRequest;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
@@ -27,13 +30,23 @@ import androidx.core.view.WindowInsetsCompat;
 
 
 public class ContactActivity extends AppCompatActivity {
+    // Avatar views in the order of the stored avatar numbers
+    private static final int[] AVATAR_VIEW_IDS = {R.id.avatar1, R.id.avatar2, R.id.avatar3};
+
     private ImageView selectedAvatar;
     private int selectedAvatarId = R.id.avatar1;
+    // File name of the contact's photo, used when the photo view is selected
+    private String selectedPhoto;
+    private AvatarLoader avatarLoader;
     private int contactIdToEdit = -1;
     EditText editName;
     EditText editEmail;
     EditText editDateOfBirth;
 
+    // Pick a photo for the contact with the system photo picker
+    private final ActivityResultLauncher<PickVisualMediaRequest> pickPhotoLauncher =
+            registerForActivityResult(new ActivityResultContracts.PickVisualMedia(), this::savePickedPhoto);
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -59,6 +72,7 @@ public class ContactActivity extends AppCompatActivity {
             }
         }
         // Initialise necessary components
+        avatarLoader = AvatarLoader.getInstance(this);
         setupDateSelection();
         setupAvatarSelection();
 
@@ -108,23 +122,30 @@ public class ContactActivity extends AppCompatActivity {
 
     // Load existing data if in edit mode
     private void loadExistingData() {
-        // Load contact data from database
-        try (DatabaseHelper databaseHelper = new DatabaseHelper(getApplicationContext())) {
-            final Contact contact = databaseHelper.getContactById(contactIdToEdit);
-            if (contact != null) {
+        // Load contact data from database in the background
+        ContactRepository.getInstance(this).loadContact(contactIdToEdit, contact -> {
+            if (contact == null || isFinishing()) {
+                return;
+            }
+            try {
                 // Populate fields with existing data
                 editName.setText(contact.getName());
                 editEmail.setText(contact.getEmail());
                 editDateOfBirth.setText(contact.getDateOfBirth());
 
-                // Set selected avatar
-                int avatarNumber = contact.getAvatarId();
-                ImageView avatarView = findViewById(AvatarConstants.AVATAR_RESOURCES[avatarNumber - 1]);
-                selectAvatar(avatarView);
+                // Set selected photo or avatar
+                if (contact.getPhoto() != null) {
+                    showPhoto(contact.getPhoto());
+                } else {
+                    int index = contact.getAvatarId() - 1;
+                    if (index >= 0 && index < AVATAR_VIEW_IDS.length) {
+                        selectAvatar(findViewById(AVATAR_VIEW_IDS[index]));
+                    }
+                }
+            } catch (Exception e) {
+                Log.e("ContactActivity", "Error loading contact data", e);
             }
-        } catch (Exception e) {
-            Log.e("ContactActivity", "Error loading contact data", e);
-        }
+        });
     }
 
     // Set up date selection
@@ -174,6 +195,37 @@ public class ContactActivity extends AppCompatActivity {
         avatar1.setOnClickListener(avatarClickListener);
         avatar2.setOnClickListener(avatarClickListener);
         avatar3.setOnClickListener(avatarClickListener);
+
+        // The photo view opens the photo picker
+        ImageView photoAvatar = findViewById(R.id.photoAvatar);
+        photoAvatar.setOnClickListener(v -> pickPhotoLauncher.launch(new PickVisualMediaRequest.Builder()
+                .setMediaType(ActivityResultContracts.PickVisualMedia.ImageOnly.INSTANCE)
+                .build()));
+    }
+
+    // Copy the picked photo into app storage in the background, then select it
+    private void savePickedPhoto(Uri photoUri) {
+        if (photoUri == null) {
+            return;
+        }
+        avatarLoader.savePhoto(photoUri, photoName -> {
+            if (isFinishing()) {
+                return;
+            }
+            if (photoName == null) {
+                Toast.makeText(this, "Unable to use the selected photo", Toast.LENGTH_LONG).show();
+                return;
+            }
+            showPhoto(photoName);
+        });
+    }
+
+    // Show a saved photo in the photo view and select it
+    private void showPhoto(String photoName) {
+        selectedPhoto = photoName;
+        ImageView photoAvatar = findViewById(R.id.photoAvatar);
+        avatarLoader.loadPhoto(photoAvatar, photoName);
+        selectAvatar(photoAvatar);
     }
 
     private void selectAvatar(View clickedAvatar) {
@@ -188,11 +240,14 @@ public class ContactActivity extends AppCompatActivity {
         selectedAvatarId = clickedAvatar.getId();
     }
 
-    // Get avatar number from avatar ID
+    // Get avatar number from avatar view ID, the photo view keeps the default avatar number
     private int getAvatarNumber(int avatarId) {
-        String resourceName = getResources().getResourceEntryName(avatarId);
-        // Extract the digit after "avatar" (e.g., "avatar1" -> 1)
-        return Integer.parseInt(resourceName.replace("avatar", ""));
+        for (int i = 0; i < AVATAR_VIEW_IDS.length; i++) {
+            if (AVATAR_VIEW_IDS[i] == avatarId) {
+                return i + 1;
+            }
+        }
+        return AvatarConstants.DEFAULT_AVATAR_NUMBER;
     }
 
     // Validate required fields
@@ -232,25 +287,33 @@ public class ContactActivity extends AppCompatActivity {
             return;
         }
 
-        // Insert contact details into the database
-        DatabaseHelper databaseHelper = new DatabaseHelper(getApplicationContext());
+        // Insert contact details into the database in the background
+        ContactRepository repository = ContactRepository.getInstance(this);
 
         int avatarNumber = getAvatarNumber(selectedAvatarId);
+        String photo = selectedAvatarId == R.id.photoAvatar ? selectedPhoto : null;
         String name = editName.getText().toString();
         String email = editEmail.getText().toString();
         String dateOfBirth = editDateOfBirth.getText().toString();
 
         if (contactIdToEdit != -1) {
             // Update existing contact
-            boolean updated = databaseHelper.updateContactDetails(contactIdToEdit, avatarNumber, name, email, dateOfBirth);
-            Toast.makeText(this, "Contact detail updated: " + updated, Toast.LENGTH_LONG).show();
+            repository.updateContact(contactIdToEdit, avatarNumber, name, email, dateOfBirth, photo, updated -> {
+                Toast.makeText(this, "Contact detail updated: " + updated, Toast.LENGTH_LONG).show();
+                returnToContactList();
+            });
         } else {
             // Insert new contact
-            long createdContactDetail = databaseHelper.insertContactDetails(avatarNumber, name, email, dateOfBirth);
-            Toast.makeText(this, "New contact detail created: " + createdContactDetail, Toast.LENGTH_LONG).show();
+            repository.insertContact(avatarNumber, name, email, dateOfBirth, photo, createdContactDetail -> {
+                Toast.makeText(this, "New contact detail created: " + createdContactDetail, Toast.LENGTH_LONG).show();
+                returnToContactList();
+            });
         }
+    }
 
-        Intent detailsIntent = new Intent(this, ContactDetailsActivity.class);
-        startActivity(detailsIntent);
+    // Go back to the contact list once the write has finished
+    // The list picks up the change from the contact cache, so it is not started again
+    private void returnToContactList() {
+        finish();
     }
 }
\ No newline at end of file
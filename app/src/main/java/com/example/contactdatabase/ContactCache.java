@@ -0,0 +1,98 @@
+package com.example.contactdatabase;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Process-wide cache of contacts keyed by ID, the least recently used contacts are evicted first
+// Every committed write passes through it, so screens share contacts and learn about changes without re-reading the table
+// Reads and writes are thread safe, change notifications are delivered on the main thread
+public class ContactCache {
+    public static final int MAX_CONTACTS = 2000;
+
+    private final LruCache<Integer, Contact> contacts = new LruCache<>(MAX_CONTACTS);
+    private final List<OnContactsChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Held while checking a read's version and caching it, and while applying a change
+    // Otherwise a read could pass the check, lose the race to a change, then cache the row the change replaced
+    private final Object lock = new Object();
+    // Data version of the last change applied, older reads are not cached
+    private long changeVersion;
+
+    // Listen to committed changes, applied to the cache before listeners see them
+    public interface OnContactsChangedListener {
+        void onContactsChanged(ContactChanges changes);
+    }
+
+    public void addOnContactsChangedListener(OnContactsChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnContactsChangedListener(OnContactsChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Get a cached contact, or null on a miss
+    public Contact get(int contactId) {
+        return contacts.get(contactId);
+    }
+
+    // Remember contacts read at a data version, reads older than the last change would bring back stale rows
+    public void put(Contact contact, long readVersion) {
+        synchronized (lock) {
+            if (contact != null && readVersion >= changeVersion) {
+                contacts.put(contact.getId(), contact);
+            }
+        }
+    }
+
+    public void putAll(Collection<Contact> contactsRead, long readVersion) {
+        synchronized (lock) {
+            if (readVersion < changeVersion) {
+                return;
+            }
+            for (Contact contact : contactsRead) {
+                contacts.put(contact.getId(), contact);
+            }
+        }
+    }
+
+    // Write-through update, called on the writing thread once the database write has committed
+    void applyChanges(ContactChanges changes) {
+        synchronized (lock) {
+            changeVersion = changes.version;
+            if (changes.reset) {
+                contacts.evictAll();
+            } else {
+                for (ContactChanges.Change change : changes.changes) {
+                    if (change.type == ContactChanges.Type.DELETED) {
+                        contacts.remove(change.contactId);
+                    } else {
+                        contacts.put(change.contactId, change.contact);
+                    }
+                }
+            }
+        }
+        mainHandler.post(() -> {
+            for (OnContactsChangedListener listener : listeners) {
+                listener.onContactsChanged(changes);
+            }
+        });
+    }
+
+    public int getHitCount() {
+        return contacts.hitCount();
+    }
+
+    public int getMissCount() {
+        return contacts.missCount();
+    }
+
+    public int size() {
+        return contacts.size();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.contactdatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Rows changed by one committed database write, published by DatabaseHelper
+// Positions are in the order the list was shown in when the write ran, old positions are before the write and new positions after it
+// Applying the changes in list order keeps every position valid
+public class ContactChanges {
+    public static final int NO_POSITION = -1;
+
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        DELETED
+    }
+
+    // One changed row
+    public static class Change {
+        public final Type type;
+        public final int contactId;
+        // The contact after the write, null when deleted
+        public final Contact contact;
+        // NO_POSITION when inserted, or when a deleted row's position was not looked up
+        public final int oldPosition;
+        // NO_POSITION when deleted
+        public final int newPosition;
+
+        Change(Type type, int contactId, Contact contact, int oldPosition, int newPosition) {
+            this.type = type;
+            this.contactId = contactId;
+            this.contact = contact;
+            this.oldPosition = oldPosition;
+            this.newPosition = newPosition;
+        }
+    }
+
+    // Data version the write committed, reads stamped with this version or later already include it
+    public final long version;
+    // Too many rows changed to list, such as after an import, everything has to be reloaded
+    public final boolean reset;
+    // Order the positions are in, null for a reset
+    public final DatabaseHelper.SortOrder sortOrder;
+    public final List<Change> changes;
+
+    ContactChanges(long version, boolean reset, DatabaseHelper.SortOrder sortOrder, List<Change> changes) {
+        this.version = version;
+        this.reset = reset;
+        this.sortOrder = sortOrder;
+        this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+
+    static ContactChanges reset(long version) {
+        return new ContactChanges(version, true, null, Collections.emptyList());
+    }
+
+    // Whether every row has the positions needed to apply it to an ordered list
+    public boolean hasPositions() {
+        for (Change change : changes) {
+            if (change.type != Type.INSERTED && change.oldPosition == NO_POSITION) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
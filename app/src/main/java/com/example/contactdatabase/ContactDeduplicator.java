@@ -0,0 +1,209 @@
+package com.example.contactdatabase;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Finds contacts that are likely the same person in one pass over the table
+// Contacts are only compared through blocking keys, the same email, or the same name and date of birth,
+// so the work grows with the number of contacts instead of the number of pairs
+// Contacts linked through any key, directly or through each other, form one group
+// Each group lists the keys that linked it, as two contacts in one group may share nothing but a third contact
+public class ContactDeduplicator {
+    // A set of contacts believed to be the same person, the contact kept by a merge first
+    public static class DuplicateGroup {
+        public final List<Contact> contacts;
+        // What the contacts were matched on, e.g. "email john@example.com"
+        public final List<String> matches;
+
+        DuplicateGroup(List<Contact> contacts, List<String> matches) {
+            this.contacts = Collections.unmodifiableList(contacts);
+            this.matches = Collections.unmodifiableList(matches);
+        }
+
+        public Contact getKept() {
+            return contacts.get(0);
+        }
+
+        public List<Integer> getContactIds() {
+            List<Integer> contactIds = new ArrayList<>(contacts.size());
+            for (Contact contact : contacts) {
+                contactIds.add(contact.getId());
+            }
+            return contactIds;
+        }
+    }
+
+    private final DatabaseHelper databaseHelper;
+
+    // Contact ID per row, and the union-find parent per row
+    private final ArrayList<Integer> contactIds = new ArrayList<>();
+    private int[] parents = new int[1024];
+    // First row seen with each blocking key, and the keys seen on more than one row
+    private final HashMap<String, Integer> firstRowByKey = new HashMap<>();
+    private final HashSet<String> linkingKeys = new HashSet<>();
+
+    public ContactDeduplicator(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    // Groups of likely duplicates, each ordered oldest contact first, largest groups first
+    public List<DuplicateGroup> findDuplicates() {
+        contactIds.clear();
+        try (Cursor results = databaseHelper.openDuplicateKeysCursor()) {
+            while (results.moveToNext()) {
+                int row = addRow(results.getInt(0));
+                String emailKey = normalizeEmail(results.getString(2));
+                if (!emailKey.isEmpty()) {
+                    link(row, "e:" + emailKey);
+                }
+                String nameKey = normalizeName(results.getString(1));
+                Long epochDay = DateOfBirth.parseEpochDay(results.getString(3));
+                if (!nameKey.isEmpty() && epochDay != null) {
+                    link(row, "n:" + nameKey + "|" + epochDay);
+                }
+            }
+        }
+        HashMap<Integer, List<String>> groupMatches = new HashMap<>();
+        for (String key : linkingKeys) {
+            int root = find(firstRowByKey.get(key));
+            List<String> matches = groupMatches.get(root);
+            if (matches == null) {
+                matches = new ArrayList<>();
+                groupMatches.put(root, matches);
+            }
+            matches.add(describeKey(key));
+        }
+        firstRowByKey.clear();
+        linkingKeys.clear();
+
+        // Count each group first so the many contacts without duplicates never get a list
+        int rowCount = contactIds.size();
+        int[] groupSizes = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            groupSizes[find(row)]++;
+        }
+        HashMap<Integer, List<Integer>> groupIds = new HashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            int root = find(row);
+            if (groupSizes[root] < 2) {
+                continue;
+            }
+            List<Integer> ids = groupIds.get(root);
+            if (ids == null) {
+                ids = new ArrayList<>(groupSizes[root]);
+                groupIds.put(root, ids);
+            }
+            ids.add(contactIds.get(row));
+        }
+
+        // Only contacts in a group are read in full
+        List<Integer> duplicateIds = new ArrayList<>();
+        for (List<Integer> ids : groupIds.values()) {
+            duplicateIds.addAll(ids);
+        }
+        HashMap<Integer, Contact> contactsById = new HashMap<>();
+        for (Contact contact : databaseHelper.getContactsByIds(duplicateIds)) {
+            contactsById.put(contact.getId(), contact);
+        }
+
+        List<DuplicateGroup> groups = new ArrayList<>(groupIds.size());
+        // Rows are read in ID order, so each group is already oldest first
+        for (Map.Entry<Integer, List<Integer>> group : groupIds.entrySet()) {
+            List<Integer> ids = group.getValue();
+            List<Contact> contacts = new ArrayList<>(ids.size());
+            for (int contactId : ids) {
+                Contact contact = contactsById.get(contactId);
+                if (contact != null) {
+                    contacts.add(contact);
+                }
+            }
+            if (contacts.size() > 1) {
+                List<String> matches = groupMatches.get(group.getKey());
+                Collections.sort(matches);
+                groups.add(new DuplicateGroup(contacts, matches));
+            }
+        }
+        Collections.sort(groups, (first, second) -> {
+            int sizeComparison = Integer.compare(second.contacts.size(), first.contacts.size());
+            return sizeComparison != 0 ? sizeComparison : Integer.compare(first.getKept().getId(), second.getKept().getId());
+        });
+        return groups;
+    }
+
+    private int addRow(int contactId) {
+        int row = contactIds.size();
+        contactIds.add(contactId);
+        if (row == parents.length) {
+            parents = Arrays.copyOf(parents, row * 2);
+        }
+        parents[row] = row;
+        return row;
+    }
+
+    // Join the row to the group of the first row with the same key
+    private void link(int row, String key) {
+        Integer firstRow = firstRowByKey.putIfAbsent(key, row);
+        if (firstRow != null) {
+            union(firstRow, row);
+            linkingKeys.add(key);
+        }
+    }
+
+    // "e:<email>" or "n:<name>|<epoch day>" as shown to the user
+    static String describeKey(String key) {
+        if (key.startsWith("e:")) {
+            return "email " + key.substring(2);
+        }
+        int separator = key.lastIndexOf('|');
+        return "name " + key.substring(2, separator)
+                + " born " + DateOfBirth.format(Long.parseLong(key.substring(separator + 1)));
+    }
+
+    private int find(int row) {
+        while (parents[row] != row) {
+            // Point every other row at its grandparent so later finds are shorter
+            parents[row] = parents[parents[row]];
+            row = parents[row];
+        }
+        return row;
+    }
+
+    // The older row stays the root, so the root is the contact a merge keeps
+    private void union(int first, int second) {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if (firstRoot != secondRoot) {
+            parents[Math.max(firstRoot, secondRoot)] = Math.min(firstRoot, secondRoot);
+        }
+    }
+
+    static String normalizeEmail(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Lower case words separated by single spaces, so "John  Smith" and "john smith." match
+    static String normalizeName(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String word : name.toLowerCase(Locale.ROOT).split("[^a-z0-9\\u0080-\\uffff]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            normalized.append(word);
+        }
+        return normalized.toString();
+    }
+}
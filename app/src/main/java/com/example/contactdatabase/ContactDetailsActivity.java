@@ -1,6 +1,14 @@
 package com.example.contactdatabase;
 
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.Toolbar;
@@ -10,30 +18,74 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.content.Intent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.SearchView;
 
 import androidx.activity.EdgeToEdge;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.snackbar.Snackbar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 public class ContactDetailsActivity extends AppCompatActivity {
-    RecyclerView.Adapter contactDetailsAdapter;
+    private static final int UPCOMING_BIRTHDAY_DAYS = 30;
+    private static final int UNDO_DURATION_MILLIS = 5000;
+    // Labels for DatabaseHelper.SortOrder, in the same order
+    private static final String[] SORT_ORDER_LABELS = {"Name", "Email", "Date of birth", "Recently modified"};
+    // Startup is timed once per process, not again when the screen is recreated
+    private static boolean startupRecorded;
+
+    ContactDetailsAdapter contactDetailsAdapter;
     RecyclerView recyclerView;
     LinearLayout optionsBar;
     SearchView searchView;
-    DatabaseHelper dbHelper;
+    ContactRepository contactRepository;
     RecyclerView.LayoutManager layoutManager;
-    ArrayList<Contact> allContacts;
+    ContactPagedList contactPagedList;
+    ContactSearchEngine contactSearchEngine;
     Button selectAllButton;
+    AlphabetScrollerView alphabetScroller;
+
+    // Apply committed changes in place instead of re-reading the table
+    private final ContactCache.OnContactsChangedListener contactsChangedListener = changes -> {
+        contactPagedList.applyChanges(changes);
+        List<Contact> updatedResults = contactSearchEngine.applyChanges(changes);
+        if (contactDetailsAdapter.getCurrentList() != contactPagedList) {
+            if (updatedResults != null) {
+                updateRecyclerView(updatedResults);
+            } else {
+                performSearch(searchView.getQuery().toString());
+            }
+        }
+    };
+
+    // Pick a CSV or vCard file to import
+    private final ActivityResultLauncher<String[]> importFileLauncher =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importContacts);
+
+    // Choose where to write an export
+    private final ActivityResultLauncher<String> exportCsvLauncher =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("text/csv"),
+                    fileUri -> exportContacts(fileUri, ContactExporter.Format.CSV));
+    private final ActivityResultLauncher<String> exportVCardLauncher =
+            registerForActivityResult(new ActivityResultContracts.CreateDocument("text/vcard"),
+                    fileUri -> exportContacts(fileUri, ContactExporter.Format.VCARD));
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -42,6 +94,13 @@ public class ContactDetailsActivity extends AppCompatActivity {
         // this.deleteDatabase("contact_details_database");
 
         super.onCreate(savedInstanceState);
+
+        // Open the database and decode the avatars while the layout inflates
+        contactRepository = ContactRepository.getInstance(this);
+        contactRepository.openInBackground();
+        AvatarLoader avatarLoader = AvatarLoader.getInstance(this);
+        avatarLoader.prewarm();
+
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_contact_recycler_view);
         ViewCompat.setOnApplyWindowInsetsListener(findViewById(R.id.contactRecyclerView), (v, insets) -> {
@@ -55,25 +114,146 @@ public class ContactDetailsActivity extends AppCompatActivity {
         setSupportActionBar(toolbar);
 
         // Get the contact details from the database and displays it
-        dbHelper = new DatabaseHelper(this);
+        // Pages are loaded by name as the list scrolls instead of reading the whole table
+        // All database work runs in the background through the repository
+
+        contactPagedList = new ContactPagedList(contactRepository);
+        contactSearchEngine = new ContactSearchEngine(contactRepository);
+
+        // The first launch in a process draws the rows saved last time while the database opens
+        boolean coldStart = !startupRecorded;
+        startupRecorded = true;
+        if (coldStart) {
+            long snapshotStart = System.nanoTime();
+            ContactListSnapshot snapshot = ContactListSnapshot.read(this);
+            if (snapshot != null) {
+                contactPagedList.seed(snapshot.count, snapshot.rows);
+            }
+            Metrics.STARTUP_SNAPSHOT.record(System.nanoTime() - snapshotStart);
+        }
+        contactPagedList.setOnPagesChangedListener(new ContactPagedList.OnPagesChangedListener() {
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                if (contactDetailsAdapter.getCurrentList() == contactPagedList) {
+                    contactDetailsAdapter.notifyItemRangeChanged(positionStart, itemCount);
+                }
+            }
 
-        ArrayList<Contact> contacts = dbHelper.getAllContacts();
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (contactDetailsAdapter.getCurrentList() == contactPagedList) {
+                    contactDetailsAdapter.notifyItemRangeInserted(positionStart, itemCount);
+                }
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                if (contactDetailsAdapter.getCurrentList() == contactPagedList) {
+                    contactDetailsAdapter.notifyItemRangeRemoved(positionStart, itemCount);
+                }
+            }
+
+            @Override
+            public void onDataSetChanged() {
+                if (contactDetailsAdapter.getCurrentList() == contactPagedList) {
+                    contactDetailsAdapter.notifyDataSetChanged();
+                }
+            }
+        });
 
         // Get the RecyclerView from the layout
         recyclerView = findViewById(R.id.contactRecyclerView);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.requestLayout();
 
-        contactDetailsAdapter = new ContactDetailsAdapter(contacts);
+        // One adapter lives for the whole screen, new lists are diffed into it
+        contactDetailsAdapter = new ContactDetailsAdapter(contactPagedList, avatarLoader);
         recyclerView.setAdapter(contactDetailsAdapter);
 
         optionsBar = findViewById(R.id.optionsBar);
         selectAllButton = findViewById(R.id.selectAllButton);
         searchView = findViewById(R.id.searchView);
+        alphabetScroller = findViewById(R.id.alphabetScroller);
 
         setupSearchView();
+        setupAlphabetScroller();
         setupAdapterListeners();
-        setupClickListeners(dbHelper);
+        setupClickListeners(contactRepository);
+
+        // Restore the selection after a configuration change
+        if (savedInstanceState != null) {
+            contactDetailsAdapter.restoreSelectionState(savedInstanceState);
+        }
+
+        // Load once, later changes arrive through the contact cache
+        contactRepository.getContactCache().addOnContactsChangedListener(contactsChangedListener);
+        if (coldStart) {
+            recordFirstFrame();
+            // No undo outlives the process, so the trash left before this launch is purged once the list is up
+            // The cutoff is taken once, so no purge batch can reach a contact deleted since while its undo is showing
+            long purgeBefore = System.currentTimeMillis() - UNDO_DURATION_MILLIS;
+            contactPagedList.refresh(() -> {
+                Metrics.STARTUP_DATABASE.record(sinceProcessStart());
+                Log.d("ContactDetailsActivity", "Contacts loaded from the database "
+                        + sinceProcessStart() / 1_000_000 + " ms after process start");
+                reportFullyDrawn();
+                contactRepository.purgeDeletedContacts(purgeBefore);
+            });
+        } else {
+            contactPagedList.refresh();
+        }
+    }
+
+    // Time to the first frame of the list, which shows snapshot rows when there was a snapshot
+    private void recordFirstFrame() {
+        boolean fromSnapshot = !contactPagedList.isEmpty();
+        recyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Metrics.STARTUP_FIRST_FRAME.record(sinceProcessStart());
+                Log.d("ContactDetailsActivity", "First frame " + sinceProcessStart() / 1_000_000
+                        + " ms after process start" + (fromSnapshot ? " from the snapshot" : ""));
+                return true;
+            }
+        });
+    }
+
+    private static long sinceProcessStart() {
+        return (SystemClock.uptimeMillis() - Process.getStartUptimeMillis()) * 1_000_000;
+    }
+
+    // Save the top of the list so the next launch can draw it before the database opens
+    // Launches start in name order, so the list is only saved in it
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (contactPagedList.getSortOrder() != DatabaseHelper.SortOrder.NAME) {
+            return;
+        }
+        List<Contact> leadingRows = contactPagedList.getLeadingRows(ContactListSnapshot.MAX_ROWS);
+        if (leadingRows.size() == Math.min(contactPagedList.size(), ContactListSnapshot.MAX_ROWS)) {
+            ContactListSnapshot.save(this, contactPagedList.size(), leadingRows);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        contactRepository.getContactCache().removeOnContactsChangedListener(contactsChangedListener);
+        contactSearchEngine.cancel();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        AvatarLoader.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        contactDetailsAdapter.saveSelectionState(outState);
     }
 
     @Override
@@ -89,18 +269,243 @@ public class ContactDetailsActivity extends AppCompatActivity {
             Intent intent = new Intent(this, ContactActivity.class);
             startActivity(intent);
             return true;
+        } else if (itemId == R.id.importContactsButton) {
+            importFileLauncher.launch(new String[]{
+                    "text/csv", "text/comma-separated-values", "text/vcard", "text/x-vcard", "text/plain"});
+            return true;
+        } else if (itemId == R.id.exportCsvButton) {
+            exportCsvLauncher.launch("contacts.csv");
+            return true;
+        } else if (itemId == R.id.exportVCardButton) {
+            exportVCardLauncher.launch("contacts.vcf");
+            return true;
+        } else if (itemId == R.id.sortButton) {
+            showSortOrders();
+            return true;
+        } else if (itemId == R.id.findDuplicatesButton) {
+            findDuplicates();
+            return true;
+        } else if (itemId == R.id.upcomingBirthdaysButton) {
+            showUpcomingBirthdays();
+            return true;
+        } else if (itemId == R.id.performanceMetricsButton) {
+            showPerformanceMetrics();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    // Set up click listeners
-    private void setupClickListeners(DatabaseHelper databaseHelper) {
-        setupAdapterListeners();
+    // Import contacts from the chosen file in the background and show progress
+    private void importContacts(Uri fileUri) {
+        if (fileUri == null) {
+            return;
+        }
+
+        InputStream inputStream;
+        try {
+            inputStream = getContentResolver().openInputStream(fileUri);
+        } catch (Exception e) {
+            Log.e("ContactDetailsActivity", "Error opening import file", e);
+            inputStream = null;
+        }
+        if (inputStream == null) {
+            Toast.makeText(this, "Unable to open the selected file", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Importing contacts")
+                .setMessage("Starting import...")
+                .setCancelable(false)
+                .show();
+
+        contactRepository.importContacts(inputStream, getFileSize(fileUri),
+                (importedCount, bytesRead, totalBytes) -> {
+                    String progress = totalBytes > 0 ? " (" + (bytesRead * 100 / totalBytes) + "%)" : "";
+                    progressDialog.setMessage("Imported " + importedCount + " contacts" + progress);
+                },
+                result -> {
+                    progressDialog.dismiss();
+                    if (result == null) {
+                        Toast.makeText(this, "Fail to import contacts", Toast.LENGTH_LONG).show();
+                        return;
+                    }
+                    Toast.makeText(this, "Imported " + result.importedCount + " contacts, skipped "
+                            + result.skippedCount, Toast.LENGTH_LONG).show();
+                });
+    }
+
+    // Export all contacts to the chosen file in the background, the export can be cancelled
+    private void exportContacts(Uri fileUri, ContactExporter.Format format) {
+        if (fileUri == null) {
+            return;
+        }
+
+        OutputStream outputStream;
+        try {
+            outputStream = getContentResolver().openOutputStream(fileUri, "wt");
+        } catch (Exception e) {
+            Log.e("ContactDetailsActivity", "Error opening export file", e);
+            outputStream = null;
+        }
+        if (outputStream == null) {
+            Toast.makeText(this, "Unable to create the export file", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        AlertDialog progressDialog = new AlertDialog.Builder(this)
+                .setTitle("Exporting contacts")
+                .setMessage("Starting export...")
+                .setCancelable(false)
+                .setNegativeButton("Cancel", null)
+                .create();
+
+        ContactExporter exporter = contactRepository.exportContacts(outputStream, format,
+                (exportedCount, totalCount) -> progressDialog.setMessage(
+                        "Exported " + exportedCount + " of " + totalCount + " contacts"),
+                exportedCount -> {
+                    // The dialog is already gone when the user cancelled
+                    if (!progressDialog.isShowing()) {
+                        return;
+                    }
+                    progressDialog.dismiss();
+                    if (exportedCount == null) {
+                        Toast.makeText(this, "Fail to export contacts", Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(this, "Exported " + exportedCount + " contacts", Toast.LENGTH_LONG).show();
+                    }
+                });
+
+        progressDialog.setOnShowListener(dialog -> progressDialog.getButton(AlertDialog.BUTTON_NEGATIVE)
+                .setOnClickListener(v -> {
+                    exporter.cancel();
+                    deletePartialExport(fileUri);
+                    progressDialog.dismiss();
+                }));
+        progressDialog.show();
+    }
+
+    // Find likely duplicates in the background and let the user choose which groups to merge
+    private void findDuplicates() {
+        Toast.makeText(this, "Looking for duplicates...", Toast.LENGTH_SHORT).show();
+        contactRepository.findDuplicates(groups -> {
+            if (groups == null) {
+                Toast.makeText(this, "Fail to look for duplicates", Toast.LENGTH_LONG).show();
+                return;
+            }
+            if (groups.isEmpty()) {
+                Toast.makeText(this, "No duplicates found", Toast.LENGTH_LONG).show();
+                return;
+            }
+            showDuplicates(groups);
+        });
+    }
+
+    // Every group starts selected, each is merged into its oldest contact
+    // Each group shows what it was matched on, a group can be linked through a contact that matches both others
+    private void showDuplicates(List<ContactDeduplicator.DuplicateGroup> groups) {
+        String[] descriptions = new String[groups.size()];
+        boolean[] selected = new boolean[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            ContactDeduplicator.DuplicateGroup group = groups.get(i);
+            StringBuilder description = new StringBuilder(group.getKept().getName())
+                    .append(" (").append(group.contacts.size()).append(" copies)");
+            for (String match : group.matches) {
+                description.append("\nSame ").append(match);
+            }
+            descriptions[i] = description.toString();
+            selected[i] = true;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(groups.size() + " possible duplicates")
+                .setMultiChoiceItems(descriptions, selected, (dialog, which, isChecked) -> selected[which] = isChecked)
+                .setPositiveButton("Merge", (dialog, which) -> {
+                    List<ContactDeduplicator.DuplicateGroup> mergedGroups = new ArrayList<>();
+                    for (int i = 0; i < groups.size(); i++) {
+                        if (selected[i]) {
+                            mergedGroups.add(groups.get(i));
+                        }
+                    }
+                    contactRepository.mergeDuplicates(mergedGroups, deletion -> {
+                        if (deletion == null) {
+                            Toast.makeText(this, "Fail to merge contacts", Toast.LENGTH_LONG).show();
+                        } else if (deletion.count > 0) {
+                            showUndo("Merged " + deletion.count + (deletion.count == 1 ? " contact" : " contacts"), deletion);
+                        }
+                    });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // List the birthdays in the coming weeks, found by the database through the birthday index
+    private void showUpcomingBirthdays() {
+        contactRepository.loadUpcomingBirthdays(UPCOMING_BIRTHDAY_DAYS, contacts -> {
+            if (contacts == null) {
+                Toast.makeText(this, "Fail to load birthdays", Toast.LENGTH_LONG).show();
+                return;
+            }
+            StringBuilder message = new StringBuilder();
+            for (Contact contact : contacts) {
+                message.append(contact.getName()).append(" - ").append(contact.getDateOfBirth()).append('\n');
+            }
+            new AlertDialog.Builder(this)
+                    .setTitle("Birthdays in the next " + UPCOMING_BIRTHDAY_DAYS + " days")
+                    .setMessage(contacts.isEmpty() ? "No upcoming birthdays" : message.toString().trim())
+                    .setPositiveButton("OK", null)
+                    .show();
+        });
+    }
+
+    // Show p50, p95 and p99 timings of the instrumented paths
+    // Metrics are off until turned on here, the report can be saved to a file for adb pull
+    private void showPerformanceMetrics() {
+        String report = Metrics.isEnabled() ? Metrics.report() : "Metrics are turned off";
+        new AlertDialog.Builder(this)
+                .setTitle("Performance metrics (ms)")
+                .setMessage(report)
+                .setPositiveButton("Save to file", (dialog, which) -> {
+                    try {
+                        File dumpFile = Metrics.dump(this);
+                        Toast.makeText(this, "Saved to " + dumpFile.getPath(), Toast.LENGTH_LONG).show();
+                    } catch (IOException e) {
+                        Log.e("ContactDetailsActivity", "Error saving metrics", e);
+                        Toast.makeText(this, "Fail to save metrics", Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton("Reset", (dialog, which) -> Metrics.reset())
+                .setNeutralButton(Metrics.isEnabled() ? "Turn off" : "Turn on",
+                        (dialog, which) -> Metrics.setEnabled(!Metrics.isEnabled()))
+                .show();
+    }
 
+    // Remove an export file that was cancelled part way through
+    private void deletePartialExport(Uri fileUri) {
+        try {
+            DocumentsContract.deleteDocument(getContentResolver(), fileUri);
+        } catch (Exception e) {
+            Log.e("ContactDetailsActivity", "Error deleting cancelled export", e);
+        }
+    }
+
+    // Get the size of a picked file, or -1 if the provider does not report it
+    private long getFileSize(Uri fileUri) {
+        try (Cursor cursor = getContentResolver().query(fileUri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (Exception e) {
+            Log.e("ContactDetailsActivity", "Error reading import file size", e);
+        }
+        return -1;
+    }
+
+    // Set up click listeners
+    private void setupClickListeners(ContactRepository repository) {
         // Return button
         ImageView returnButton = findViewById(R.id.returnIcon);
         returnButton.setOnClickListener(v -> {
-            ((ContactDetailsAdapter) contactDetailsAdapter).exitSelectionMode();
+            contactDetailsAdapter.exitSelectionMode();
         });
 
         // Select all button
@@ -110,36 +515,53 @@ public class ContactDetailsActivity extends AppCompatActivity {
             toggleCheckboxSelectionMode();
         });
 
-        // Delete button
+        // Long press inverts the selection
+        selectAllButton.setOnLongClickListener(v -> {
+            contactDetailsAdapter.invertSelection();
+            return true;
+        });
+
+        // Delete button, contacts go to the trash straight away and the undo bar replaces a confirmation
         ImageView deleteButton = findViewById(R.id.trashIcon);
         deleteButton.setOnClickListener(v -> {
-            new androidx.appcompat.app.AlertDialog.Builder(this)
-                    .setTitle("Delete selected contacts")
-                    .setMessage("Are you sure you want to delete the selected contacts?")
-                    .setPositiveButton("Delete", (dialog, which) -> {
-                        ((ContactDetailsAdapter) contactDetailsAdapter).deleteSelectedContacts(databaseHelper);
-                        // Refresh search results after deletion
-                        allContacts = databaseHelper.getAllContacts();
-                        String currentQuery = searchView.getQuery().toString();
-                        if (!currentQuery.isEmpty()) {
-                            performSearch(currentQuery);
-                        } else {
-                            updateRecyclerView(allContacts);
-                        }
-                    })
-                    .setNegativeButton("Cancel", null)
-                    .show();
+            contactDetailsAdapter.deleteSelectedContacts(repository, deletion -> {
+                if (deletion == null) {
+                    Toast.makeText(this, "Fail to delete contacts", Toast.LENGTH_LONG).show();
+                } else if (deletion.count > 0) {
+                    showUndo("Deleted " + deletion.count + (deletion.count == 1 ? " contact" : " contacts"), deletion);
+                }
+            });
         });
     }
+
+    // Offer to undo a delete or merge for a few seconds
+    // Once the bar closes any other way, a newer delete included, the delete is purged in the background
+    private void showUndo(String message, DatabaseHelper.Deletion deletion) {
+        Snackbar.make(recyclerView, message, UNDO_DURATION_MILLIS)
+                .setAction("Undo", v -> contactRepository.restoreContacts(deletion, restoredCount -> {
+                    if (restoredCount == null) {
+                        Toast.makeText(this, "Fail to restore contacts", Toast.LENGTH_LONG).show();
+                    }
+                }))
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        if (event != DISMISS_EVENT_ACTION) {
+                            contactRepository.purgeDeletedContacts(deletion.deletedAt + 1);
+                        }
+                    }
+                })
+                .show();
+    }
     // Set up adapter listeners
     private void setupAdapterListeners() {
         // Selection mode listener
-        ((ContactDetailsAdapter) contactDetailsAdapter).setSelectionModeListener(isSelectionMode -> {
+        contactDetailsAdapter.setSelectionModeListener(isSelectionMode -> {
             optionsBar.setVisibility(isSelectionMode ? View.VISIBLE : View.GONE);
         });
 
         // Edit listener
-        ((ContactDetailsAdapter) contactDetailsAdapter).setOnContactClickListener((contact, position) -> {
+        contactDetailsAdapter.setOnContactClickListener((contact, position) -> {
             Intent intent = new Intent(this, ContactActivity.class);
             intent.putExtra("contactIdToEdit", contact.getId());
             intent.putExtra("isEditMode", true);
@@ -147,7 +569,7 @@ public class ContactDetailsActivity extends AppCompatActivity {
         });
 
         // Checkbox selection change listener
-        ((ContactDetailsAdapter) contactDetailsAdapter).setContactSelectionChangeListener(isAllContactsSelected -> {
+        contactDetailsAdapter.setContactSelectionChangeListener(isAllContactsSelected -> {
             if (isAllContactsSelected) {
                 selectAllButton.setText("Deselect All");
             } else {
@@ -159,10 +581,10 @@ public class ContactDetailsActivity extends AppCompatActivity {
     // Toggle selection mode
     private void toggleCheckboxSelectionMode() {
         if (selectAllButton.getText().toString().equals("Select All")) {
-            ((ContactDetailsAdapter) contactDetailsAdapter).selectAllContacts();
+            contactDetailsAdapter.selectAllContacts();
             selectAllButton.setText("Deselect All");
         } else {
-            ((ContactDetailsAdapter) contactDetailsAdapter).deselectAllContacts();
+            contactDetailsAdapter.deselectAllContacts();
             selectAllButton.setText("Select All");
         }
     }
@@ -179,7 +601,8 @@ public class ContactDetailsActivity extends AppCompatActivity {
             public boolean onQueryTextChange(String newText) {
                 if (newText.isEmpty()) {
                     // Show all contacts when search is empty
-                    updateRecyclerView(allContacts);
+                    contactSearchEngine.cancel();
+                    updateRecyclerView(contactPagedList);
                 } else {
                     performSearch(newText);
                 }
@@ -188,44 +611,57 @@ public class ContactDetailsActivity extends AppCompatActivity {
         });
     }
 
-    // Update RecyclerView per search
-    private void updateRecyclerView(List<Contact> contacts) {
-        contactDetailsAdapter = new ContactDetailsAdapter(new ArrayList<>(contacts));
-        recyclerView.setAdapter(contactDetailsAdapter);
+    // Jump straight to a letter, the name index gives its position without touching the database
+    // Only shown for the full list in name order, search results and other orders are not in name order
+    private void setupAlphabetScroller() {
+        alphabetScroller.setOnSectionSelectedListener(section -> {
+            int position = contactRepository.getNameIndex().getSectionPosition(section);
+            int lastPosition = contactDetailsAdapter.getItemCount() - 1;
+            if (lastPosition >= 0) {
+                ((LinearLayoutManager) recyclerView.getLayoutManager())
+                        .scrollToPositionWithOffset(Math.min(position, lastPosition), 0);
+            }
+        });
+        contactRepository.loadNameIndex(nameIndex -> updateAlphabetScroller());
+    }
 
-        // Re-setup listeners for the new adapter
-        setupAdapterListeners();
+    private void updateAlphabetScroller() {
+        boolean showingAllContacts = contactDetailsAdapter.getCurrentList() == contactPagedList;
+        boolean inNameOrder = contactPagedList.getSortOrder() == DatabaseHelper.SortOrder.NAME;
+        alphabetScroller.setVisibility(showingAllContacts && inNameOrder && contactRepository.getNameIndex().isReady()
+                ? View.VISIBLE : View.GONE);
     }
 
-    // Check if an entry contains a keyword (case insensitive)
-    private boolean containsIgnoreCase(String text, String keyword) {
-        return text != null && text.toLowerCase().contains(keyword);
+    // Pick the order of the contact list
+    private void showSortOrders() {
+        DatabaseHelper.SortOrder[] sortOrders = DatabaseHelper.SortOrder.values();
+        new AlertDialog.Builder(this)
+                .setTitle("Sort by")
+                .setSingleChoiceItems(SORT_ORDER_LABELS, contactPagedList.getSortOrder().ordinal(), (dialog, which) -> {
+                    dialog.dismiss();
+                    contactPagedList.setSortOrder(sortOrders[which]);
+                    recyclerView.scrollToPosition(0);
+                    updateAlphabetScroller();
+                })
+                .show();
     }
 
-    private boolean hikeContainsKeyword(Contact contact, String keyword) {
-        // Search in all text fields
-        return containsIgnoreCase(contact.getName(), keyword) ||
-               containsIgnoreCase(contact.getEmail(), keyword) ||
-               containsIgnoreCase(contact.getDateOfBirth(), keyword);
+    // Update RecyclerView per search
+    private void updateRecyclerView(List<Contact> contacts) {
+        contactDetailsAdapter.submitList(contacts);
+        updateAlphabetScroller();
     }
 
     // Perform search and update RecyclerView
+    // Searches are debounced and refine the previous results while the user keeps typing
     private void performSearch(String query) {
         if (query == null || query.trim().isEmpty()) {
-            updateRecyclerView(allContacts);
+            contactSearchEngine.cancel();
+            updateRecyclerView(contactPagedList);
             return;
         }
 
-        String searchQuery = query.trim().toLowerCase();
-        List<Contact> filteredContacts = new ArrayList<>();
-
-        for (Contact hike : allContacts) {
-            if (hikeContainsKeyword(hike, searchQuery)) {
-                filteredContacts.add(hike);
-            }
-        }
-
-        updateRecyclerView(filteredContacts);
+        contactSearchEngine.search(query, (searchedQuery, filteredContacts) -> updateRecyclerView(filteredContacts));
     }
 
     @Override
@@ -234,13 +670,5 @@ public class ContactDetailsActivity extends AppCompatActivity {
 
         // Focus
         searchView.requestFocus();
-        // Refresh data when returning from edit activity
-        allContacts = dbHelper.getAllContacts();
-        String currentQuery = searchView.getQuery().toString();
-        if (!currentQuery.isEmpty()) {
-            performSearch(currentQuery);
-        } else {
-            updateRecyclerView(allContacts);
-        }
     }
 }
\ No newline at end of file
@@ -8,24 +8,88 @@ import android.widget.CheckBox;
 import android.widget.TextView;
 import android.widget.ImageView;
 
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.jspecify.annotations.NonNull;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 // ContactDetailsAdapter class to bind contact data to the RecyclerView
 public class ContactDetailsAdapter extends RecyclerView.Adapter<ContactDetailsAdapter.ContactViewHolder> {
-    private final ArrayList<Contact> contacts;
+    // Payload used to rebind only the checkbox when the selection changes
+    private static final Object SELECTION_PAYLOAD = new Object();
+    private static final String SELECTION_MODE_KEY = "selectionMode";
+
+    private List<Contact> contacts;
     private boolean selectionMode = false;
-    public ArrayList<Integer> selectedContacts = new ArrayList<>();
-    public ContactDetailsAdapter(ArrayList<Contact> contacts) {
+    // Selection is keyed by contact ID so it survives list changes
+    private final ContactSelection selection = new ContactSelection();
+
+    // Diffs are computed off the main thread, only the latest submitted list is applied
+    private static final ExecutorService diffExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int submitGeneration;
+
+    private final AvatarLoader avatarLoader;
+
+    public ContactDetailsAdapter(List<Contact> contacts, AvatarLoader avatarLoader) {
         this.contacts = contacts != null ? contacts : new ArrayList<>();
+        this.avatarLoader = avatarLoader;
+        setHasStableIds(true);
+    }
+
+    // Get the list currently displayed
+    public List<Contact> getCurrentList() {
+        return contacts;
+    }
+
+    // Replace the displayed contacts, only rows that changed are rebound
+    public void submitList(List<Contact> newContacts) {
+        List<Contact> oldContacts = contacts;
+        int generation = ++submitGeneration;
+        if (newContacts == oldContacts) {
+            return;
+        }
+
+        // A paged list cannot be diffed without loading every page, rows are matched by stable ID instead
+        if (newContacts instanceof ContactPagedList || oldContacts instanceof ContactPagedList) {
+            contacts = newContacts;
+            notifyDataSetChanged();
+            return;
+        }
+
+        List<Contact> newSnapshot = new ArrayList<>(newContacts);
+        diffExecutor.execute(() -> {
+            long start = Metrics.LIST_DIFF.start();
+            DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new ContactDiffCallback(oldContacts, newSnapshot));
+            Metrics.LIST_DIFF.stop(start);
+            mainHandler.post(() -> {
+                if (generation != submitGeneration) {
+                    return;
+                }
+                contacts = newSnapshot;
+                diffResult.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Contact contact = contacts.get(position);
+        // Rows still loading get a negative ID so they never collide with a contact ID
+        return contact != null ? contact.getId() : -(position + 1L);
     }
 
     @Override
     public int getItemCount() {
-        Log.d("ContactDetailsAdapter", "Number of contacts: " + contacts.size());
         return contacts.size();
     }
 
@@ -38,39 +102,51 @@ public class ContactDetailsAdapter extends RecyclerView.Adapter<ContactDetailsAd
     }
 
     @Override
-    public void onBindViewHolder(@NonNull ContactViewHolder holder, int position) {
-        Log.d("ContactDetailsAdapter", "Binding position: " + position);
+    public void onBindViewHolder(@NonNull ContactViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(SELECTION_PAYLOAD)) {
+            bindSelection(holder, position);
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
+    }
 
+    // Update only the checkbox of a row
+    private void bindSelection(ContactViewHolder holder, int position) {
+        holder.itemCheckBox.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
+        holder.itemCheckBox.setChecked(selection.isSelected(contacts.get(position)));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ContactViewHolder holder, int position) {
+        long start = Metrics.ADAPTER_BIND.start();
         Contact contact = contacts.get(position);
         if (contact != null) {
             holder.templateNameValue.setText(contact.getName() != null ? contact.getName() : "");
             holder.templateEmailValue.setText(contact.getEmail() != null ? contact.getEmail() : "");
             holder.templateDoBValue.setText(contact.getDateOfBirth() != null ? contact.getDateOfBirth() : "");
 
-            // Set the avatar based on the stored avatar number
-            int avatarNumber = contact.getAvatarId();
-            int index = avatarNumber - 1;
-
-            if (index >= 0 && index < AvatarConstants.AVATAR_RESOURCES.length) {
-                holder.contactAvatar.setImageResource(AvatarConstants.AVATAR_RESOURCES[index]);
-            } else {
-                holder.contactAvatar.setImageResource(R.drawable.avatar_1); // Default fallback
-            }
+            // Photo or bundled avatar, decoded once at the row size and shared through the avatar cache
+            avatarLoader.loadAvatar(holder.contactAvatar, contact);
         } else {
             holder.templateNameValue.setText("");
             holder.templateEmailValue.setText("");
             holder.templateDoBValue.setText("");
-            holder.contactAvatar.setImageResource(R.drawable.avatar_1);
+            avatarLoader.loadAvatar(holder.contactAvatar, AvatarConstants.DEFAULT_AVATAR_NUMBER);
         }
 
         // Handle selection mode
-        holder.itemCheckBox.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
-        holder.itemCheckBox.setChecked(selectedContacts.contains(position)); // Set checkbox state based on selection
+        bindSelection(holder, position); // Set checkbox state based on selection
 
+        // Rows can move without being rebound after a diff, so read the position when clicked
         holder.itemView.setOnLongClickListener(v -> {
-            if (!selectionMode) {
+            int clickedPosition = holder.getBindingAdapterPosition();
+            if (!selectionMode && clickedPosition != RecyclerView.NO_POSITION) {
+                Contact clickedContact = contacts.get(clickedPosition);
+                if (clickedContact == null) {
+                    return true;
+                }
                 enterSelectionMode();
-                selectedContacts.add(position);
+                selection.setSelected(clickedContact.getId(), true);
                 holder.itemCheckBox.setChecked(true);
             }
 
@@ -79,34 +155,32 @@ public class ContactDetailsAdapter extends RecyclerView.Adapter<ContactDetailsAd
 
         // Handle item selection
         holder.itemView.setOnClickListener(v -> {
+            int clickedPosition = holder.getBindingAdapterPosition();
+            if (clickedPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Contact clickedContact = contacts.get(clickedPosition);
             if (selectionMode) {
-                if (selectedContacts.contains(position)) {
-                    selectedContacts.remove(Integer.valueOf(position));
-                    holder.itemCheckBox.setChecked(false);
-                } else {
-                    selectedContacts.add(position);
-                    holder.itemCheckBox.setChecked(true);
+                if (clickedContact == null) {
+                    return;
                 }
+                selection.toggle(clickedContact.getId());
+                holder.itemCheckBox.setChecked(selection.isSelected(clickedContact));
 
                 // If all items are selected, notifies the contact list to change "Select All" to "Deselect All"
                 // And vice versa
-                if (selectedContacts.size() == contacts.size()) {
-                    if (contactSelectionChangeListener != null) {
-                        contactSelectionChangeListener.onContactSelectionChanged(true);
-                    }
-                } else {
-                    if (contactSelectionChangeListener != null) {
-                        contactSelectionChangeListener.onContactSelectionChanged(false);
-                    }
+                if (contactSelectionChangeListener != null) {
+                    contactSelectionChangeListener.onContactSelectionChanged(isAllSelected());
                 }
 
             } else {
                 // Notify listener for edit request
-                if (onContactClickListener != null) {
-                    onContactClickListener.onContactClick(contact, position);
+                if (onContactClickListener != null && clickedContact != null) {
+                    onContactClickListener.onContactClick(clickedContact, clickedPosition);
                 }
             }
         });
+        Metrics.ADAPTER_BIND.stop(start);
     }
 
     // Listen to checkbox selection changes
@@ -135,30 +209,88 @@ public class ContactDetailsAdapter extends RecyclerView.Adapter<ContactDetailsAd
         if (selectionModeListener != null) {
             selectionModeListener.onSelectionModeChanged(true);
         }
-        notifyItemRangeChanged(0, getItemCount());
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
     }
 
     // Exit selection mode
     public void exitSelectionMode() {
         selectionMode = false;
-        selectedContacts.clear();
+        selection.clear();
         if (selectionModeListener != null) {
             selectionModeListener.onSelectionModeChanged(false);
         }
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
+    }
+
+    // Check whether every displayed contact is selected
+    private boolean isAllSelected() {
+        if (contacts instanceof ContactPagedList) {
+            return selection.isInverted()
+                    ? selection.getExplicitCount() == 0
+                    : selection.getExplicitCount() == contacts.size();
+        }
+        for (Contact contact : contacts) {
+            if (!selection.isSelected(contact)) {
+                return false;
+            }
+        }
+        return !contacts.isEmpty();
+    }
+
+    // Keep selection mode and the selected IDs across configuration changes
+    public void saveSelectionState(Bundle outState) {
+        outState.putBoolean(SELECTION_MODE_KEY, selectionMode);
+        selection.saveState(outState);
     }
 
-    // Delete selected contacts from the database
-    public void deleteSelectedContacts(DatabaseHelper db) {
-        Log.d("ContactDetailsAdapter", "Deleting selected contacts: " + selectedContacts.size());
-        for (int i = 0; i <= selectedContacts.size() - 1; i++) {
-            int position = selectedContacts.get(i);
-            db.deleteContactById(contacts.get(position).getId());
+    public void restoreSelectionState(Bundle savedState) {
+        if (!savedState.getBoolean(SELECTION_MODE_KEY, false)) {
+            return;
+        }
+        enterSelectionMode();
+        selection.restoreState(savedState);
+        if (contactSelectionChangeListener != null) {
+            contactSelectionChangeListener.onContactSelectionChanged(isAllSelected());
         }
-        contacts.clear();
-        contacts.addAll(db.getAllContacts()); // Refresh the contacts list
-        notifyDataSetChanged();
-        exitSelectionMode();
+    }
+
+    // Move selected contacts to the trash in one background transaction
+    // The lists are updated from the contact cache change notifications, the callback receives the deletion to undo
+    public void deleteSelectedContacts(ContactRepository repository, ContactRepository.Callback<DatabaseHelper.Deletion> onDeleted) {
+        List<Contact> contactsAtDelete = contacts;
+
+        // Everything but the excluded IDs is selected, delete without listing every row
+        if (contactsAtDelete instanceof ContactPagedList && selection.isInverted()) {
+            List<Integer> keptIds = selection.getExplicitIds();
+            Log.d("ContactDetailsAdapter", "Deleting all contacts except: " + keptIds.size());
+            repository.deleteAllContactsExcept(keptIds, deletion -> {
+                exitSelectionMode();
+                if (onDeleted != null) {
+                    onDeleted.onResult(deletion);
+                }
+            });
+            return;
+        }
+
+        List<Integer> contactIds;
+        if (contactsAtDelete instanceof ContactPagedList) {
+            contactIds = selection.getExplicitIds();
+        } else {
+            contactIds = new ArrayList<>();
+            for (Contact contact : contactsAtDelete) {
+                if (selection.isSelected(contact)) {
+                    contactIds.add(contact.getId());
+                }
+            }
+        }
+        Log.d("ContactDetailsAdapter", "Deleting selected contacts: " + contactIds.size());
+
+        repository.deleteContacts(contactIds, deletion -> {
+            exitSelectionMode();
+            if (onDeleted != null) {
+                onDeleted.onResult(deletion);
+            }
+        });
     }
 
 
@@ -172,18 +304,68 @@ public class ContactDetailsAdapter extends RecyclerView.Adapter<ContactDetailsAd
     }
 
     // Select all contacts
+    // The full list is selected in O(1), search results only select their own rows
     public void selectAllContacts() {
-        selectedContacts.clear();
-        for (int i = 0; i < contacts.size(); i++) {
-            selectedContacts.add(i);
+        if (contacts instanceof ContactPagedList) {
+            selection.selectAll();
+        } else {
+            for (Contact contact : contacts) {
+                selection.setSelected(contact.getId(), true);
+            }
         }
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
     }
 
     // Deselect all contacts
     public void deselectAllContacts() {
-        selectedContacts.clear();
-        notifyDataSetChanged();
+        selection.clear();
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
+    }
+
+    // Invert the selection of the displayed contacts
+    public void invertSelection() {
+        if (contacts instanceof ContactPagedList) {
+            selection.invert();
+        } else {
+            for (Contact contact : contacts) {
+                selection.toggle(contact.getId());
+            }
+        }
+        notifyItemRangeChanged(0, getItemCount(), SELECTION_PAYLOAD);
+        if (contactSelectionChangeListener != null) {
+            contactSelectionChangeListener.onContactSelectionChanged(isAllSelected());
+        }
+    }
+
+    // Match rows by contact ID and compare their contents
+    private static class ContactDiffCallback extends DiffUtil.Callback {
+        private final List<Contact> oldContacts;
+        private final List<Contact> newContacts;
+
+        ContactDiffCallback(List<Contact> oldContacts, List<Contact> newContacts) {
+            this.oldContacts = oldContacts;
+            this.newContacts = newContacts;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldContacts.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newContacts.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldContacts.get(oldItemPosition).getId() == newContacts.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldContacts.get(oldItemPosition).equals(newContacts.get(newItemPosition));
+        }
     }
 
     // ContactViewHolder class to hold the views for each contact item
@@ -0,0 +1,147 @@
+package com.example.contactdatabase;
+
+import android.database.Cursor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Streams the contacts table to a CSV or vCard file
+// Rows are written straight from a forward-only cursor so memory use stays bounded
+public class ContactExporter {
+    private static final int PROGRESS_INTERVAL = 500;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        CSV,
+        VCARD
+    }
+
+    // Report export progress, called from the exporting thread
+    public interface OnExportProgressListener {
+        void onExportProgress(int exportedCount, int totalCount);
+    }
+
+    private final Format format;
+    private final OnExportProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    public ContactExporter(Format format, OnExportProgressListener progressListener) {
+        this.format = format;
+        this.progressListener = progressListener;
+    }
+
+    // Stop the export after the current row
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Write every contact to the stream and return how many were written
+    public int exportContacts(DatabaseHelper databaseHelper, OutputStream outputStream) throws IOException {
+        int totalCount = databaseHelper.getContactCount();
+        int exportedCount = 0;
+
+        try (Cursor results = databaseHelper.openContactsCursor();
+             Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            if (format == Format.CSV) {
+                writer.write("name,email,date_of_birth,avatar\r\n");
+            }
+
+            DatabaseHelper.ContactRow row = new DatabaseHelper.ContactRow(results);
+            while (!cancelled && results.moveToNext()) {
+                int avatarId = row.getAvatarId();
+                String name = row.getName();
+                String email = row.getEmail();
+                String dateOfBirth = row.getDateOfBirth();
+
+                if (format == Format.CSV) {
+                    writeCsvRow(writer, avatarId, name, email, dateOfBirth);
+                } else {
+                    writeVCard(writer, name, email, dateOfBirth);
+                }
+
+                exportedCount++;
+                if (progressListener != null && exportedCount % PROGRESS_INTERVAL == 0) {
+                    progressListener.onExportProgress(exportedCount, totalCount);
+                }
+            }
+        }
+
+        if (progressListener != null) {
+            progressListener.onExportProgress(exportedCount, totalCount);
+        }
+        return exportedCount;
+    }
+
+    // Columns match what ContactImporter reads back
+    static void writeCsvRow(Writer writer, int avatarId, String name, String email, String dateOfBirth)
+            throws IOException {
+        writeCsvField(writer, name);
+        writer.write(',');
+        writeCsvField(writer, email);
+        writer.write(',');
+        writeCsvField(writer, dateOfBirth);
+        writer.write(',');
+        writer.write(Integer.toString(avatarId));
+        writer.write("\r\n");
+    }
+
+    // Quote fields containing separators, quotes or line breaks
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    // A date of birth not in d/M/yyyy form is written as it is, ContactImporter skips cards without a BDAY
+    static void writeVCard(Writer writer, String name, String email, String dateOfBirth) throws IOException {
+        writer.write("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:");
+        writer.write(escapeVCard(name));
+        writer.write("\r\nN:;");
+        writer.write(escapeVCard(name));
+        writer.write(";;;\r\nEMAIL:");
+        writer.write(escapeVCard(email));
+        writer.write("\r\nBDAY:");
+        String birthday = convertToVCardDate(dateOfBirth);
+        writer.write(birthday != null ? birthday : escapeVCard(dateOfBirth));
+        writer.write("\r\nEND:VCARD\r\n");
+    }
+
+    private static String escapeVCard(String value) {
+        return value.replace("\\", "\\\\").replace(",", "\\,").replace(";", "\\;").replace("\n", "\\n");
+    }
+
+    // Convert the d/M/yyyy format used by the edit screen into yyyy-MM-dd
+    private static String convertToVCardDate(String dateOfBirth) {
+        String[] parts = dateOfBirth.split("/");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            int day = Integer.parseInt(parts[0].trim());
+            int month = Integer.parseInt(parts[1].trim());
+            int year = Integer.parseInt(parts[2].trim());
+            return String.format(Locale.ROOT, "%04d-%02d-%02d", year, month, day);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
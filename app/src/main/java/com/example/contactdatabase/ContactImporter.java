@@ -0,0 +1,443 @@
+package com.example.contactdatabase;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Streams contacts from a CSV or vCard file into the database
+// Files are parsed one line at a time so memory use does not grow with the file size
+public class ContactImporter {
+    private static final int PROGRESS_INTERVAL = 500;
+    // Longest CSV field kept, so a quote that is never closed cannot pull the rest of the file into one field
+    static final int MAX_FIELD_LENGTH = 4096;
+    // Longest physical line kept, the rest of a longer line is skipped without being buffered
+    static final int MAX_LINE_LENGTH = 8 * MAX_FIELD_LENGTH;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // Report import progress, called from the importing thread
+    public interface OnImportProgressListener {
+        void onImportProgress(int importedCount, long bytesRead, long totalBytes);
+    }
+
+    // Summary of a finished import
+    public static class ImportResult {
+        public final int importedCount;
+        public final int skippedCount;
+
+        ImportResult(int importedCount, int skippedCount) {
+            this.importedCount = importedCount;
+            this.skippedCount = skippedCount;
+        }
+    }
+
+    // Where parsed contacts go, a DatabaseHelper.BulkInsert when importing into the database
+    interface ContactSink {
+        void insert(int avatarId, String name, String email, String dateOfBirth);
+    }
+
+    private final DatabaseHelper databaseHelper;
+    private final OnImportProgressListener progressListener;
+    private CountingInputStream countingStream;
+    private long totalBytes;
+    private int importedCount;
+    private int skippedCount;
+
+    public ContactImporter(DatabaseHelper databaseHelper, OnImportProgressListener progressListener) {
+        this.databaseHelper = databaseHelper;
+        this.progressListener = progressListener;
+    }
+
+    // Import every contact in the stream, the format is detected from the first line
+    // totalBytes may be -1 when the size is unknown
+    public ImportResult importContacts(InputStream inputStream, long totalBytes) throws IOException {
+        try (DatabaseHelper.BulkInsert bulkInsert = databaseHelper.beginBulkInsert()) {
+            return importContacts(inputStream, totalBytes, bulkInsert::insert);
+        }
+    }
+
+    ImportResult importContacts(InputStream inputStream, long totalBytes, ContactSink sink) throws IOException {
+        this.totalBytes = totalBytes;
+        countingStream = new CountingInputStream(inputStream);
+        importedCount = 0;
+        skippedCount = 0;
+
+        try (BoundedLineReader reader = new BoundedLineReader(
+                new InputStreamReader(countingStream, StandardCharsets.UTF_8), MAX_LINE_LENGTH)) {
+            String firstLine = reader.readLine();
+            while (firstLine != null && firstLine.trim().isEmpty()) {
+                firstLine = reader.readLine();
+            }
+            if (firstLine == null) {
+                return new ImportResult(0, 0);
+            }
+
+            // Strip a byte order mark left by some spreadsheet exports
+            if (firstLine.startsWith("\uFEFF")) {
+                firstLine = firstLine.substring(1);
+            }
+
+            if (firstLine.trim().equalsIgnoreCase("BEGIN:VCARD")) {
+                importVCards(reader, sink);
+            } else {
+                importCsv(firstLine, reader, sink);
+            }
+            reportProgress(importedCount);
+            return new ImportResult(importedCount, skippedCount);
+        }
+    }
+
+    // CSV rows are name, email, date of birth and an optional avatar number
+    // A header row may reorder the columns
+    private void importCsv(String firstLine, BoundedLineReader reader, ContactSink sink) throws IOException {
+        int nameIndex = 0;
+        int emailIndex = 1;
+        int dobIndex = 2;
+        int avatarIndex = 3;
+
+        List<String> firstRow = reader.lastLineTooLong() ? null : parseCsvLine(firstLine, reader);
+        if (firstRow != null && isCsvHeader(firstRow)) {
+            nameIndex = emailIndex = dobIndex = avatarIndex = -1;
+            for (int i = 0; i < firstRow.size(); i++) {
+                String column = firstRow.get(i).trim().toLowerCase(Locale.ROOT).replace(" ", "_");
+                if (column.equals("name")) {
+                    nameIndex = i;
+                } else if (column.equals("email")) {
+                    emailIndex = i;
+                } else if (column.equals("date_of_birth") || column.equals("dob") || column.equals("birthday")) {
+                    dobIndex = i;
+                } else if (column.equals("avatar") || column.equals("avatarid")) {
+                    avatarIndex = i;
+                }
+            }
+        } else {
+            insertCsvRow(firstRow, nameIndex, emailIndex, dobIndex, avatarIndex, sink);
+        }
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            // Only the start of an overlong line was kept, so the record is skipped rather than cut short
+            List<String> row = reader.lastLineTooLong() ? null : parseCsvLine(line, reader);
+            insertCsvRow(row, nameIndex, emailIndex, dobIndex, avatarIndex, sink);
+        }
+    }
+
+    private boolean isCsvHeader(List<String> row) {
+        for (String field : row) {
+            String column = field.trim().toLowerCase(Locale.ROOT);
+            if (column.equals("name") || column.equals("email")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insertCsvRow(List<String> row, int nameIndex, int emailIndex, int dobIndex, int avatarIndex,
+                              ContactSink sink) {
+        if (row == null) {
+            skippedCount++;
+            return;
+        }
+        String name = field(row, nameIndex);
+        String email = field(row, emailIndex);
+        String dateOfBirth = field(row, dobIndex);
+        insertContact(parseAvatar(field(row, avatarIndex)), name, email, dateOfBirth, sink);
+    }
+
+    private static String field(List<String> row, int index) {
+        return index >= 0 && index < row.size() ? row.get(index).trim() : "";
+    }
+
+    // Split one CSV record, quoted fields may contain commas, doubled quotes and line breaks
+    // Returns null for a malformed record, a quoted field still open at the end of the file, one past MAX_FIELD_LENGTH
+    // or one continuing onto a line past MAX_LINE_LENGTH
+    // The lines read up to that point are dropped with it, the next record starts on the line after
+    static List<String> parseCsvLine(String line, BoundedLineReader reader) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        String currentLine = line;
+        int i = 0;
+        while (true) {
+            if (field.length() > MAX_FIELD_LENGTH) {
+                return null;
+            }
+            if (i >= currentLine.length()) {
+                if (inQuotes) {
+                    // The quoted field continues on the next line
+                    String nextLine = reader.readLine();
+                    if (nextLine == null || reader.lastLineTooLong()) {
+                        return null;
+                    }
+                    field.append('\n');
+                    currentLine = nextLine;
+                    i = 0;
+                    continue;
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+
+            char c = currentLine.charAt(i++);
+            if (inQuotes) {
+                if (c == '"' && i < currentLine.length() && currentLine.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+    }
+
+    // Read FN, N, EMAIL and BDAY from each card
+    // Properties past MAX_FIELD_LENGTH are dropped, a card losing one of the values read here is skipped
+    private void importVCards(BoundedLineReader reader, ContactSink sink) throws IOException {
+        String name = "";
+        String structuredName = "";
+        String email = "";
+        String birthday = "";
+        boolean cardTooLong = false;
+
+        String line;
+        String pendingLine = null;
+        boolean pendingLineTooLong = false;
+        while ((line = pendingLine != null ? pendingLine : reader.readLine()) != null) {
+            boolean propertyTooLong = (pendingLine != null ? pendingLineTooLong : reader.lastLineTooLong())
+                    || line.length() > MAX_FIELD_LENGTH;
+            pendingLine = null;
+
+            // Unfold continuation lines which start with a space or tab
+            // Once the property is too long the remaining continuation lines are read past without being kept
+            StringBuilder unfolded = new StringBuilder(line);
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null
+                    && !nextLine.isEmpty() && (nextLine.charAt(0) == ' ' || nextLine.charAt(0) == '\t')) {
+                if (propertyTooLong) {
+                    continue;
+                }
+                if (reader.lastLineTooLong() || unfolded.length() + nextLine.length() - 1 > MAX_FIELD_LENGTH) {
+                    propertyTooLong = true;
+                } else {
+                    unfolded.append(nextLine, 1, nextLine.length());
+                }
+            }
+            pendingLine = nextLine;
+            pendingLineTooLong = reader.lastLineTooLong();
+
+            String property = unfolded.toString();
+            int separator = property.indexOf(':');
+            if (separator < 0) {
+                continue;
+            }
+            // Drop parameters such as EMAIL;TYPE=work
+            String key = property.substring(0, separator).toUpperCase(Locale.ROOT);
+            int parameterStart = key.indexOf(';');
+            if (parameterStart >= 0) {
+                key = key.substring(0, parameterStart);
+            }
+            String value = property.substring(separator + 1).trim();
+
+            if (propertyTooLong) {
+                // Long properties the importer does not read, such as an embedded PHOTO, leave the card intact
+                if (key.equals("FN") || key.equals("N") || key.equals("EMAIL") || key.equals("BDAY")) {
+                    cardTooLong = true;
+                }
+            } else if (key.equals("BEGIN")) {
+                name = structuredName = email = birthday = "";
+                cardTooLong = false;
+            } else if (key.equals("FN")) {
+                name = unescapeVCard(value);
+            } else if (key.equals("N")) {
+                structuredName = parseStructuredName(value);
+            } else if (key.equals("EMAIL") && email.isEmpty()) {
+                email = unescapeVCard(value);
+            } else if (key.equals("BDAY")) {
+                birthday = convertVCardDate(unescapeVCard(value));
+            } else if (key.equals("END") && cardTooLong) {
+                skippedCount++;
+            } else if (key.equals("END")) {
+                insertContact(AvatarConstants.DEFAULT_AVATAR_NUMBER, name.isEmpty() ? structuredName : name,
+                        email, birthday, sink);
+            }
+        }
+    }
+
+    // N is family;given;additional;prefix;suffix
+    private static String parseStructuredName(String value) {
+        String[] parts = value.split(";", -1);
+        String given = parts.length > 1 ? unescapeVCard(parts[1]) : "";
+        String family = unescapeVCard(parts[0]);
+        return (given + " " + family).trim();
+    }
+
+    private static String unescapeVCard(String value) {
+        return value.replace("\\,", ",").replace("\\;", ";").replace("\\n", " ").replace("\\\\", "\\");
+    }
+
+    // Convert yyyy-MM-dd or yyyyMMdd into the d/M/yyyy format used by the edit screen
+    private static String convertVCardDate(String value) {
+        String digits = value.replace("-", "");
+        int timeStart = digits.indexOf('T');
+        if (timeStart >= 0) {
+            digits = digits.substring(0, timeStart);
+        }
+        if (digits.length() != 8) {
+            return value;
+        }
+        try {
+            int year = Integer.parseInt(digits.substring(0, 4));
+            int month = Integer.parseInt(digits.substring(4, 6));
+            int day = Integer.parseInt(digits.substring(6, 8));
+            return day + "/" + month + "/" + year;
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private static int parseAvatar(String value) {
+        try {
+            int avatarNumber = Integer.parseInt(value);
+            if (avatarNumber >= 1 && avatarNumber <= AvatarConstants.AVATAR_RESOURCES.length) {
+                return avatarNumber;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the default avatar
+        }
+        return AvatarConstants.DEFAULT_AVATAR_NUMBER;
+    }
+
+    // Every column is required by the table, incomplete rows are skipped
+    private void insertContact(int avatarId, String name, String email, String dateOfBirth,
+                               ContactSink sink) {
+        if (name.isEmpty() || email.isEmpty() || dateOfBirth.isEmpty()) {
+            skippedCount++;
+            return;
+        }
+        sink.insert(avatarId, name, email, dateOfBirth);
+        if (++importedCount % PROGRESS_INTERVAL == 0) {
+            reportProgress(importedCount);
+        }
+    }
+
+    private void reportProgress(int importedCount) {
+        if (progressListener != null) {
+            progressListener.onImportProgress(importedCount, countingStream.bytesRead, totalBytes);
+        }
+    }
+
+    // Reads lines like BufferedReader, ending at \n, \r or \r\n, but never holds more than maxLength characters of one
+    // A longer line is returned cut to its first maxLength characters with lastLineTooLong set, the rest is read past
+    static class BoundedLineReader implements Closeable {
+        private final Reader in;
+        private final int maxLength;
+        private final char[] buffer = new char[READ_BUFFER_SIZE];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int count;
+        private boolean skipLineFeed;
+        private boolean lastLineTooLong;
+
+        BoundedLineReader(Reader in, int maxLength) {
+            this.in = in;
+            this.maxLength = maxLength;
+        }
+
+        // Next line without its terminator, or null at the end of the input
+        String readLine() throws IOException {
+            line.setLength(0);
+            lastLineTooLong = false;
+            boolean readAny = false;
+            while (true) {
+                if (position >= count) {
+                    count = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (count <= 0) {
+                        count = 0;
+                        return readAny ? line.toString() : null;
+                    }
+                }
+                char c = buffer[position++];
+                // The \n of a \r\n pair ends the previous line
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        continue;
+                    }
+                }
+                readAny = true;
+                if (c == '\n' || c == '\r') {
+                    skipLineFeed = c == '\r';
+                    return line.toString();
+                }
+                if (line.length() < maxLength) {
+                    line.append(c);
+                } else {
+                    lastLineTooLong = true;
+                }
+            }
+        }
+
+        // Whether the line last returned was cut short
+        boolean lastLineTooLong() {
+            return lastLineTooLong;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Counts the bytes consumed so progress can be reported against the file size
+    private static class CountingInputStream extends FilterInputStream {
+        long bytesRead;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                bytesRead++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                bytesRead += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+}
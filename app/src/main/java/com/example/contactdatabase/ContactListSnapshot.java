@@ -0,0 +1,126 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The first page of the contact list and the contact count, saved to a small binary file
+// On launch the list is drawn from it straight away while the database opens, then the real rows replace it
+// Reading maps the file into memory and decodes it in one pass, no database is involved
+public class ContactListSnapshot {
+    private static final String FILE_NAME = "contact_list_snapshot.bin";
+    private static final int MAGIC = 0x434C5331;
+    private static final int FORMAT_VERSION = 1;
+    // Well past a screenful, and exactly the first page the list would load
+    public static final int MAX_ROWS = ContactPagedList.PAGE_SIZE;
+
+    private static final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+
+    public final int count;
+    public final ArrayList<Contact> rows;
+
+    private ContactListSnapshot(int count, ArrayList<Contact> rows) {
+        this.count = count;
+        this.rows = rows;
+    }
+
+    // Read the saved snapshot, or null when there is none or it cannot be used
+    public static ContactListSnapshot read(Context context) {
+        File snapshotFile = new File(context.getFilesDir(), FILE_NAME);
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = buffer.getInt();
+            int rowCount = buffer.getInt();
+            if (count < 0 || rowCount < 0 || rowCount > Math.min(count, MAX_ROWS)) {
+                return null;
+            }
+            ArrayList<Contact> rows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                int id = buffer.getInt();
+                int avatarId = buffer.getInt();
+                rows.add(new Contact(id, avatarId, readString(buffer), readString(buffer),
+                        readString(buffer), readString(buffer)));
+            }
+            return new ContactListSnapshot(count, rows);
+        } catch (IOException | RuntimeException e) {
+            // A cut off or corrupt file, the list loads from the database as usual
+            Log.e("ContactListSnapshot", "Error reading contact list snapshot", e);
+            snapshotFile.delete();
+            return null;
+        }
+    }
+
+    // Save the count and leading rows in the background, replacing the previous snapshot in one rename
+    public static void save(Context context, int count, List<Contact> rows) {
+        File snapshotFile = new File(context.getFilesDir(), FILE_NAME);
+        List<Contact> savedRows = new ArrayList<>(rows.subList(0, Math.min(rows.size(), MAX_ROWS)));
+        writeExecutor.execute(() -> {
+            File partFile = new File(snapshotFile.getPath() + ".part");
+            try (DataOutputStream output = new DataOutputStream(new FileOutputStream(partFile))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(count);
+                output.writeInt(savedRows.size());
+                for (Contact contact : savedRows) {
+                    output.writeInt(contact.getId());
+                    output.writeInt(contact.getAvatarId());
+                    writeString(output, contact.getName());
+                    writeString(output, contact.getEmail());
+                    writeString(output, contact.getDateOfBirth());
+                    writeString(output, contact.getPhoto());
+                }
+            } catch (IOException e) {
+                Log.e("ContactListSnapshot", "Error saving contact list snapshot", e);
+                partFile.delete();
+                return;
+            }
+            if (!partFile.renameTo(snapshotFile)) {
+                partFile.delete();
+            }
+        });
+    }
+
+    // Strings are a byte length, -1 for null, then UTF-8 bytes
+    // The length is checked against the bytes left, so a corrupt length never allocates past the file
+    private static String readString(MappedByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Snapshot string length " + length + " is past the end of the file");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.contactdatabase;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Sorted in-memory index of every contact name in name order, kept up to date from committed changes
+// Entry i is the contact at list position i when the list is sorted by name, so an A-Z section start is a
+// list position found by binary search, and the names starting with a prefix are a run found the same way
+// Built and changed on the write thread so no write can land part way through, read from any thread
+public class ContactNameIndex {
+    // Section labels for the fast scroller, '#' is everything before 'A'
+    public static final String SECTIONS = "#ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    // Names folded the same way as COLLATE NOCASE, with their contact IDs
+    private String[] keys = new String[0];
+    private int[] ids = new int[0];
+    // Folded name per contact ID, so a row is found by binary search whatever order the list is in
+    private HashMap<Integer, String> keysById = new HashMap<>();
+    private int size;
+    private boolean ready;
+
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    // Read every name in list order, the name index covers the query so the table is not touched
+    void rebuild(DatabaseHelper databaseHelper) {
+        String[] newKeys;
+        int[] newIds;
+        int count = 0;
+        try (Cursor results = databaseHelper.openNamesCursor()) {
+            newKeys = new String[results.getCount()];
+            newIds = new int[newKeys.length];
+            while (results.moveToNext() && count < newKeys.length) {
+                newIds[count] = results.getInt(0);
+                newKeys[count] = foldCase(results.getString(1));
+                count++;
+            }
+        }
+        load(newKeys, newIds, count);
+    }
+
+    // Replace every entry, the keys are folded names already in name order
+    void load(String[] newKeys, int[] newIds, int count) {
+        HashMap<Integer, String> newKeysById = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            newKeysById.put(newIds[i], newKeys[i]);
+        }
+        synchronized (this) {
+            keys = newKeys;
+            ids = newIds;
+            keysById = newKeysById;
+            size = count;
+            ready = true;
+        }
+    }
+
+    // Apply a committed write, called on the write thread
+    // Positions in name order are index positions, so nothing is searched for
+    // When the list is sorted another way each row is found by binary search on its name and ID instead
+    void applyChanges(DatabaseHelper databaseHelper, ContactChanges changes) {
+        if (!isReady()) {
+            return;
+        }
+        if (changes.reset || !changes.hasPositions()) {
+            rebuild(databaseHelper);
+            return;
+        }
+        boolean namePositions = changes.sortOrder == DatabaseHelper.SortOrder.NAME;
+        boolean missingContact = false;
+        synchronized (this) {
+            for (ContactChanges.Change change : changes.changes) {
+                if (change.oldPosition != ContactChanges.NO_POSITION) {
+                    int position = namePositions ? change.oldPosition : indexOf(change.contactId);
+                    if (position < 0) {
+                        missingContact = true;
+                        break;
+                    }
+                    remove(position);
+                }
+                if (change.newPosition != ContactChanges.NO_POSITION) {
+                    String key = foldCase(change.contact.getName());
+                    insert(namePositions ? change.newPosition : insertionPoint(key, change.contactId), key, change.contactId);
+                }
+            }
+        }
+        // The index no longer matches the table, read it again
+        if (missingContact) {
+            rebuild(databaseHelper);
+        }
+    }
+
+    // Position of a contact, or -1
+    private int indexOf(int contactId) {
+        String key = keysById.get(contactId);
+        if (key == null) {
+            return -1;
+        }
+        int position = insertionPoint(key, contactId);
+        return position < size && ids[position] == contactId ? position : -1;
+    }
+
+    // Position a name takes in name order, equal names are ordered by ID
+    private int insertionPoint(String key, int contactId) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = keys[middle].compareTo(key);
+            if (comparison < 0 || comparison == 0 && ids[middle] < contactId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void remove(int position) {
+        keysById.remove(ids[position]);
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        keys[size] = null;
+    }
+
+    private void insert(int position, String key, int contactId) {
+        if (size == keys.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            keys = Arrays.copyOf(keys, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        keys[position] = key;
+        ids[position] = contactId;
+        keysById.put(contactId, key);
+        size++;
+    }
+
+    // IDs of up to limit contacts whose name starts with the prefix, in name order
+    // The matching names are a contiguous run, so this costs one binary search plus the results
+    public synchronized List<Integer> findPrefix(String prefix, int limit) {
+        String key = foldCase(prefix);
+        List<Integer> contactIds = new ArrayList<>();
+        for (int position = lowerBound(key); position < size && contactIds.size() < limit
+                && keys[position].startsWith(key); position++) {
+            contactIds.add(ids[position]);
+        }
+        return contactIds;
+    }
+
+    // List position of the first contact in a section of SECTIONS, or of the next section when it is empty
+    public synchronized int getSectionPosition(int section) {
+        if (section <= 0) {
+            return 0;
+        }
+        return lowerBound(foldCase(String.valueOf(SECTIONS.charAt(section))));
+    }
+
+    // First position whose name is not before the key
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // COLLATE NOCASE only folds ASCII letters, so other characters are left as they are
+    static String foldCase(String name) {
+        if (name == null) {
+            return "";
+        }
+        char[] folded = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (folded == null) {
+                    folded = name.toCharArray();
+                }
+                folded[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return folded == null ? name : new String(folded);
+    }
+}
@@ -0,0 +1,429 @@
+package com.example.contactdatabase;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-only list of contacts in a sort order that loads fixed-size pages on demand
+// Only a bounded number of pages are kept in memory, the full table is never materialised
+// Pages are loaded in the background, rows that are not loaded yet are returned as null
+// A page next to a resident page seeks from that page's edge row, so scrolling costs the same at any depth
+// Committed changes are applied in place, shifting the resident rows instead of reloading them
+public class ContactPagedList extends AbstractList<Contact> {
+    public static final int PAGE_SIZE = 50;
+    public static final int MAX_RESIDENT_PAGES = 8;
+
+    private final ContactRepository repository;
+    private DatabaseHelper.SortOrder sortOrder;
+    private int count;
+
+    // Data version the count reflects, resident pages are never older than this
+    private long listVersion;
+    private final HashSet<Integer> pendingPages = new HashSet<>();
+
+    // Resident pages keyed by page index, least recently used first
+    private final LinkedHashMap<Integer, Page> pages =
+            new LinkedHashMap<Integer, Page>(MAX_RESIDENT_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                    return size() > MAX_RESIDENT_PAGES;
+                }
+            };
+
+    public ContactPagedList(ContactRepository repository) {
+        this.repository = repository;
+        sortOrder = repository.getSortOrder();
+    }
+
+    // Listen to rows loaded in the background or changed by a refresh
+    public interface OnPagesChangedListener {
+        void onItemRangeChanged(int positionStart, int itemCount);
+        void onItemRangeInserted(int positionStart, int itemCount);
+        void onItemRangeRemoved(int positionStart, int itemCount);
+        void onDataSetChanged();
+    }
+
+    private OnPagesChangedListener onPagesChangedListener;
+
+    public void setOnPagesChangedListener(OnPagesChangedListener listener) {
+        this.onPagesChangedListener = listener;
+    }
+
+    public DatabaseHelper.SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    // Show the contacts in another order
+    // The resident pages are dropped, only the count and the pages that come into view are read
+    public void setSortOrder(DatabaseHelper.SortOrder newSortOrder) {
+        if (newSortOrder == sortOrder) {
+            return;
+        }
+        sortOrder = newSortOrder;
+        repository.setSortOrder(newSortOrder);
+        pages.clear();
+        pendingPages.clear();
+        if (onPagesChangedListener != null) {
+            onPagesChangedListener.onDataSetChanged();
+        }
+        refresh();
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Contact get(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + count);
+        }
+        int pageIndex = position / PAGE_SIZE;
+        Page page = pages.get(pageIndex);
+        int offsetInPage = position - pageIndex * PAGE_SIZE;
+        Contact contact = page != null && offsetInPage < page.rows.size() ? page.rows.get(offsetInPage) : null;
+        // Rows not loaded yet, or left unknown by a change, are read in the background
+        if (contact == null) {
+            loadPage(pageIndex, true);
+        }
+        return contact;
+    }
+
+    // Load a page in the background and notify its rows once it arrives
+    // It seeks from the last row of the page before or the first row of the page after when either is held,
+    // otherwise, e.g. after a jump with the fast scroller, it is read by offset
+    private void loadPage(int pageIndex, boolean seek) {
+        if (!pendingPages.add(pageIndex)) {
+            return;
+        }
+        DatabaseHelper.SortOrder order = sortOrder;
+        long edgeVersion = listVersion;
+        Contact rowBefore = seek ? getEdgeRow(pageIndex - 1, true) : null;
+        Contact rowAfter = seek && rowBefore == null ? getEdgeRow(pageIndex + 1, false) : null;
+        String seekKey = rowBefore != null ? ":after:" + rowBefore.getId()
+                : rowAfter != null ? ":before:" + rowAfter.getId() : "";
+        repository.read("pagedList:" + order + ":" + pageIndex + seekKey, db -> {
+            DatabaseHelper.Versioned<ArrayList<Contact>> page = db.readAtVersion(() -> {
+                ArrayList<Contact> rows = null;
+                if (rowBefore != null) {
+                    rows = db.getContactsPageAfter(order, rowBefore.getId(), PAGE_SIZE);
+                } else if (rowAfter != null) {
+                    rows = db.getContactsPageBefore(order, rowAfter.getId(), PAGE_SIZE);
+                }
+                // The edge row has been deleted since, fall back to the offset
+                return rows != null ? rows : db.getContactsPage(order, pageIndex * PAGE_SIZE, PAGE_SIZE);
+            });
+            repository.getContactCache().putAll(page.value, page.version);
+            return page;
+        }, page -> {
+            // Read in an order the list no longer shows
+            if (order != sortOrder) {
+                return;
+            }
+            pendingPages.remove(pageIndex);
+            if (page == null) {
+                return;
+            }
+            // Read before a change that has already been applied, read it again
+            if (page.version < listVersion) {
+                loadPage(pageIndex, true);
+                return;
+            }
+            // A seek only lands on the page's positions at the version the edge row was held at
+            if (!seekKey.isEmpty() && page.version != edgeVersion) {
+                loadPage(pageIndex, false);
+                return;
+            }
+            storePage(pageIndex, new Page(page.value, page.version));
+        });
+    }
+
+    // The last row of a full page or the first row of any page, if the page is held at the list's version
+    private Contact getEdgeRow(int pageIndex, boolean lastRow) {
+        Page page = pages.get(pageIndex);
+        if (page == null || page.version != listVersion) {
+            return null;
+        }
+        if (lastRow) {
+            return page.rows.size() == PAGE_SIZE ? page.rows.get(PAGE_SIZE - 1) : null;
+        }
+        return page.rows.isEmpty() ? null : page.rows.get(0);
+    }
+
+    private void storePage(int pageIndex, Page page) {
+        Page oldPage = pages.get(pageIndex);
+        if (page.rows.isEmpty()) {
+            pages.remove(pageIndex);
+            return;
+        }
+        pages.put(pageIndex, page);
+        if (onPagesChangedListener == null) {
+            return;
+        }
+        if (oldPage == null) {
+            notifyRange(pageIndex * PAGE_SIZE, page.rows.size());
+        } else {
+            notifyChangedRows(pageIndex, oldPage.rows, page.rows);
+        }
+    }
+
+    // Show saved rows before the database has been read, e.g. from a ContactListSnapshot at launch
+    // They are held as the first page older than any read, so the next refresh replaces them and no page seeks from them
+    public void seed(int seededCount, List<Contact> rows) {
+        if (count != 0 || !pages.isEmpty()) {
+            return;
+        }
+        count = seededCount;
+        if (!rows.isEmpty()) {
+            pages.put(0, new Page(new ArrayList<>(rows.subList(0, Math.min(rows.size(), PAGE_SIZE))), -1));
+        }
+    }
+
+    // The rows loaded from the top of the list, up to the first one not loaded yet
+    public List<Contact> getLeadingRows(int maxRows) {
+        ArrayList<Contact> rows = new ArrayList<>();
+        for (int position = 0; position < Math.min(maxRows, count); position++) {
+            Page page = pages.get(position / PAGE_SIZE);
+            int offsetInPage = position % PAGE_SIZE;
+            if (page == null || offsetInPage >= page.rows.size() || page.rows.get(offsetInPage) == null) {
+                break;
+            }
+            rows.add(page.rows.get(offsetInPage));
+        }
+        return rows;
+    }
+
+    // Reload the count and the resident pages in one background read
+    // Only the rows that changed are notified
+    public void refresh() {
+        refresh(null);
+    }
+
+    // Refresh, then run the callback once the list matches the database
+    public void refresh(Runnable onRefreshed) {
+        DatabaseHelper.SortOrder order = sortOrder;
+        List<Integer> residentPages = new ArrayList<>(pages.keySet());
+        repository.read("pagedListRefresh:" + order + ":" + residentPages, db -> db.readAtVersion(() -> {
+            PageSnapshot snapshot = new PageSnapshot();
+            snapshot.count = db.getContactCount();
+            for (int pageIndex : residentPages) {
+                snapshot.pages.put(pageIndex, db.getContactsPage(order, pageIndex * PAGE_SIZE, PAGE_SIZE));
+            }
+            return snapshot;
+        }), snapshot -> {
+            if (snapshot == null) {
+                return;
+            }
+            if (snapshot.version < listVersion || order != sortOrder) {
+                refresh(onRefreshed);
+                return;
+            }
+            applySnapshot(snapshot.value, snapshot.version);
+            if (onRefreshed != null) {
+                onRefreshed.run();
+            }
+        });
+    }
+
+    private void applySnapshot(PageSnapshot snapshot, long version) {
+        boolean countChanged = snapshot.count != count;
+        count = snapshot.count;
+        listVersion = version;
+
+        for (Map.Entry<Integer, ArrayList<Contact>> entry : snapshot.pages.entrySet()) {
+            int pageIndex = entry.getKey();
+            Page oldPage = pages.get(pageIndex);
+            ArrayList<Contact> newRows = entry.getValue();
+            if (newRows.isEmpty()) {
+                pages.remove(pageIndex);
+                continue;
+            }
+            pages.put(pageIndex, new Page(newRows, version));
+
+            if (!countChanged && oldPage != null && onPagesChangedListener != null) {
+                notifyChangedRows(pageIndex, oldPage.rows, newRows);
+            }
+        }
+
+        // Pages loaded while the snapshot was read may be older than it
+        Iterator<Map.Entry<Integer, Page>> residentPages = pages.entrySet().iterator();
+        while (residentPages.hasNext()) {
+            Map.Entry<Integer, Page> entry = residentPages.next();
+            if (entry.getValue().version < version) {
+                residentPages.remove();
+                if (!countChanged && onPagesChangedListener != null) {
+                    notifyRange(entry.getKey() * PAGE_SIZE, PAGE_SIZE);
+                }
+            }
+        }
+
+        // Rows shift position when the count changes so everything has to rebind
+        if (countChanged && onPagesChangedListener != null) {
+            onPagesChangedListener.onDataSetChanged();
+        }
+    }
+
+    // Apply committed inserts, updates and deletes to the resident rows
+    // Only the affected rows are notified, the database is only read again when positions are missing
+    public void applyChanges(ContactChanges changes) {
+        if (changes.version <= listVersion) {
+            return;
+        }
+        // Positions in another order, e.g. from a write that ran while the order was switched
+        if (changes.reset || !changes.hasPositions() || changes.sortOrder != sortOrder) {
+            refresh();
+            return;
+        }
+
+        // Pages read before the write still have to be shifted, pages read after it already include it
+        HashMap<Integer, Page> stalePages = new HashMap<>();
+        int lastStalePage = -1;
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            if (entry.getValue().version < changes.version) {
+                stalePages.put(entry.getKey(), entry.getValue());
+                lastStalePage = Math.max(lastStalePage, entry.getKey());
+            }
+        }
+
+        int firstShiftedPosition = Integer.MAX_VALUE;
+        for (ContactChanges.Change change : changes.changes) {
+            if (change.type == ContactChanges.Type.UPDATED && change.oldPosition == change.newPosition) {
+                replaceRow(change.oldPosition, change.contact, stalePages);
+                continue;
+            }
+            if (change.oldPosition != ContactChanges.NO_POSITION) {
+                removeRow(change.oldPosition, stalePages, lastStalePage);
+                firstShiftedPosition = Math.min(firstShiftedPosition, change.oldPosition);
+            }
+            if (change.newPosition != ContactChanges.NO_POSITION) {
+                insertRow(change.newPosition, change.contact, stalePages, lastStalePage);
+                firstShiftedPosition = Math.min(firstShiftedPosition, change.newPosition);
+            }
+        }
+
+        for (Page page : stalePages.values()) {
+            page.version = changes.version;
+        }
+        listVersion = changes.version;
+
+        // Pages that already included the write were shown against the old count, rebind them
+        if (onPagesChangedListener != null && firstShiftedPosition != Integer.MAX_VALUE) {
+            for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+                int pageStart = entry.getKey() * PAGE_SIZE;
+                if (!stalePages.containsKey(entry.getKey()) && pageStart + PAGE_SIZE > firstShiftedPosition) {
+                    notifyRange(pageStart, entry.getValue().rows.size());
+                }
+            }
+        }
+    }
+
+    private void replaceRow(int position, Contact contact, Map<Integer, Page> stalePages) {
+        int pageIndex = position / PAGE_SIZE;
+        Page page = stalePages.get(pageIndex);
+        int offsetInPage = position - pageIndex * PAGE_SIZE;
+        if (page != null && offsetInPage < page.rows.size()) {
+            page.rows.set(offsetInPage, contact);
+            if (onPagesChangedListener != null) {
+                onPagesChangedListener.onItemRangeChanged(position, 1);
+            }
+        }
+    }
+
+    // Later rows move up one place, the row entering each page comes from the next page
+    private void removeRow(int position, Map<Integer, Page> stalePages, int lastStalePage) {
+        count--;
+        int firstPage = position / PAGE_SIZE;
+        for (int pageIndex = firstPage; pageIndex <= lastStalePage; pageIndex++) {
+            Page page = stalePages.get(pageIndex);
+            if (page == null) {
+                continue;
+            }
+            int offsetInPage = pageIndex == firstPage ? position - pageIndex * PAGE_SIZE : 0;
+            if (offsetInPage < page.rows.size()) {
+                page.rows.remove(offsetInPage);
+            }
+            // Unknown unless the next page is still held as it was before the write
+            int expectedSize = Math.min(PAGE_SIZE, count - pageIndex * PAGE_SIZE);
+            if (page.rows.size() < expectedSize) {
+                Page nextPage = stalePages.get(pageIndex + 1);
+                page.rows.add(nextPage != null && !nextPage.rows.isEmpty() ? nextPage.rows.get(0) : null);
+            }
+            if (page.rows.isEmpty()) {
+                pages.remove(pageIndex);
+            }
+        }
+        if (onPagesChangedListener != null) {
+            onPagesChangedListener.onItemRangeRemoved(position, 1);
+        }
+    }
+
+    // Later rows move down one place, the row pushed out of each page enters the next one
+    private void insertRow(int position, Contact contact, Map<Integer, Page> stalePages, int lastStalePage) {
+        count++;
+        int firstPage = position / PAGE_SIZE;
+        Contact carried = contact;
+        for (int pageIndex = firstPage; pageIndex <= lastStalePage; pageIndex++) {
+            Page page = stalePages.get(pageIndex);
+            if (page == null) {
+                // Unknown once it passes through a page that is not held as it was before the write
+                carried = null;
+                continue;
+            }
+            int offsetInPage = pageIndex == firstPage ? position - pageIndex * PAGE_SIZE : 0;
+            page.rows.add(Math.min(offsetInPage, page.rows.size()), carried);
+            carried = page.rows.size() > PAGE_SIZE ? page.rows.remove(PAGE_SIZE) : null;
+        }
+        if (onPagesChangedListener != null) {
+            onPagesChangedListener.onItemRangeInserted(position, 1);
+        }
+    }
+
+    // Notify a range of rows, clipped to the rows the list currently has
+    private void notifyRange(int positionStart, int itemCount) {
+        int end = Math.min(positionStart + itemCount, count);
+        if (end > positionStart) {
+            onPagesChangedListener.onItemRangeChanged(positionStart, end - positionStart);
+        }
+    }
+
+    // Notify contiguous runs of rows that differ between the old and new page
+    private void notifyChangedRows(int pageIndex, List<Contact> oldPage, List<Contact> newPage) {
+        int pageStart = pageIndex * PAGE_SIZE;
+        int runStart = -1;
+        int rows = Math.max(oldPage.size(), newPage.size());
+        for (int i = 0; i <= rows; i++) {
+            boolean changed = i < rows && (i >= oldPage.size() || i >= newPage.size()
+                    || oldPage.get(i) == null || !oldPage.get(i).equals(newPage.get(i)));
+            if (changed && runStart < 0) {
+                runStart = i;
+            } else if (!changed && runStart >= 0) {
+                notifyRange(pageStart + runStart, i - runStart);
+                runStart = -1;
+            }
+        }
+    }
+
+    // Rows of one page and the data version they were read at
+    // A null row is one whose contact became unknown when a change shifted the page
+    private static class Page {
+        final ArrayList<Contact> rows;
+        long version;
+
+        Page(ArrayList<Contact> rows, long version) {
+            this.rows = rows;
+            this.version = version;
+        }
+    }
+
+    // Count and resident pages read together so they are consistent with each other
+    private static class PageSnapshot {
+        int count;
+        final LinkedHashMap<Integer, ArrayList<Contact>> pages = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.UUID;
+
+// Stores contact photos as files in app storage, the database only keeps each photo's file name
+// Picked images are scaled down once when saved so later decodes never read a full camera image
+public class ContactPhotos {
+    // Longest side of a saved photo in pixels
+    private static final int MAX_PHOTO_SIZE = 1024;
+    private static final int JPEG_QUALITY = 90;
+    // Photos this new may belong to a contact that is still being edited
+    private static final long UNUSED_PHOTO_GRACE_MILLIS = 60 * 60 * 1000;
+
+    private final Context appContext;
+    private final File photoDirectory;
+
+    public ContactPhotos(Context context) {
+        appContext = context.getApplicationContext();
+        photoDirectory = new File(appContext.getFilesDir(), "contact_photos");
+    }
+
+    public File getPhotoFile(String photoName) {
+        return new File(photoDirectory, photoName);
+    }
+
+    // Copy a picked image into app storage and return its file name, or null if it could not be read
+    // Runs on a background thread
+    public String savePhoto(Uri imageUri) {
+        try {
+            // Read the dimensions only, then decode at a scale close to the stored size
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream input = appContext.getContentResolver().openInputStream(imageUri)) {
+                BitmapFactory.decodeStream(input, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            options.inSampleSize = AvatarLoader.calculateSampleSize(options.outWidth, options.outHeight, MAX_PHOTO_SIZE);
+            options.inJustDecodeBounds = false;
+
+            Bitmap bitmap;
+            try (InputStream input = appContext.getContentResolver().openInputStream(imageUri)) {
+                bitmap = BitmapFactory.decodeStream(input, null, options);
+            }
+            if (bitmap == null) {
+                return null;
+            }
+            bitmap = scaleDown(bitmap, MAX_PHOTO_SIZE);
+
+            if (!photoDirectory.isDirectory() && !photoDirectory.mkdirs()) {
+                return null;
+            }
+            String photoName = UUID.randomUUID() + ".jpg";
+            try (OutputStream output = new FileOutputStream(getPhotoFile(photoName))) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+            }
+            return photoName;
+        } catch (IOException | SecurityException e) {
+            Log.e("ContactPhotos", "Error saving photo", e);
+            return null;
+        }
+    }
+
+    // Delete photo files no contact refers to any more, e.g. after a contact was deleted or its photo replaced
+    // Runs on a background thread
+    public void deleteUnusedPhotos(Set<String> usedPhotoNames) {
+        File[] photoFiles = photoDirectory.listFiles();
+        if (photoFiles == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - UNUSED_PHOTO_GRACE_MILLIS;
+        for (File photoFile : photoFiles) {
+            if (!usedPhotoNames.contains(photoFile.getName()) && photoFile.lastModified() < cutoff
+                    && !photoFile.delete()) {
+                Log.w("ContactPhotos", "Unable to delete unused photo " + photoFile.getName());
+            }
+        }
+    }
+
+    // Scale a bitmap so its longest side is at most the given size, keeping its aspect ratio
+    static Bitmap scaleDown(Bitmap bitmap, int maxSize) {
+        int longestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longestSide <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / longestSide;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+}
@@ -0,0 +1,434 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Runs all DatabaseHelper work in the background
+// Reads share a small pool, writes run one at a time on their own thread so reads never queue behind them
+// Results are delivered back on the main thread through callbacks
+public class ContactRepository {
+    private static final int READ_THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Contacts purged per write, so edits made meanwhile wait behind one batch at most
+    private static final int PURGE_BATCH_SIZE = 500;
+    // Free pages given back per write once the trash is purged
+    private static final int COMPACT_PAGE_COUNT = 256;
+
+    private static ContactRepository instance;
+
+    private final Context appContext;
+    private final ExecutorService readExecutor;
+    private final ExecutorService writeExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ContactCache contactCache = new ContactCache();
+    private final ContactPhotos contactPhotos;
+    private final ContactNameIndex nameIndex = new ContactNameIndex();
+    private final FuzzyContactIndex fuzzyIndex = new FuzzyContactIndex();
+    // Order the contact list is shown in, kept for the life of the process
+    private DatabaseHelper.SortOrder sortOrder = DatabaseHelper.SortOrder.NAME;
+
+    // Callbacks waiting on a read that is already running, keyed by the read's key
+    private final HashMap<String, List<Callback<?>>> inFlightReads = new HashMap<>();
+
+    private ContactRepository(Context context) {
+        appContext = context.getApplicationContext();
+        readExecutor = createExecutor(READ_THREAD_COUNT, "ContactRepository-read");
+        writeExecutor = createExecutor(1, "ContactRepository-write");
+        contactPhotos = new ContactPhotos(appContext);
+
+        // Every committed write reaches the cache, and through it every screen
+        getDatabaseHelper().addOnContactsChangedListener(contactCache::applyChanges);
+        // Changes are published on the write thread, where the name index is also built
+        getDatabaseHelper().addOnContactsChangedListener(changes -> nameIndex.applyChanges(getDatabaseHelper(), changes));
+        getDatabaseHelper().addOnContactsChangedListener(fuzzyIndex::applyChanges);
+    }
+
+    private static ExecutorService createExecutor(int threadCount, String threadName) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+                threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    // Get the process-wide repository
+    public static synchronized ContactRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new ContactRepository(context);
+        }
+        return instance;
+    }
+
+    // Contacts shared by every screen, committed writes keep it up to date
+    public ContactCache getContactCache() {
+        return contactCache;
+    }
+
+    // Names in name order for fast scrolling and one-word name searches, empty until loadNameIndex has finished
+    public ContactNameIndex getNameIndex() {
+        return nameIndex;
+    }
+
+    public DatabaseHelper.SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    // Change the list order, writes publish their list positions in it from now on
+    public void setSortOrder(DatabaseHelper.SortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+        getDatabaseHelper().setListSortOrder(sortOrder);
+    }
+
+    // Build the name index on the write thread, so no write can change the list while it is read
+    public void loadNameIndex(Callback<ContactNameIndex> callback) {
+        write(db -> {
+            if (!nameIndex.isReady()) {
+                nameIndex.rebuild(db);
+            }
+            return nameIndex;
+        }, callback);
+    }
+
+    // Receive the result of a database operation on the main thread
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    // A unit of database work run on a background thread
+    public interface Query<T> {
+        T run(DatabaseHelper databaseHelper);
+    }
+
+    // The shared helper, the database itself is opened by the first query on a worker thread
+    private DatabaseHelper getDatabaseHelper() {
+        return DatabaseHelper.getInstance(appContext);
+    }
+
+    // Open the database and run any migrations ahead of the first query, e.g. while the first screen inflates
+    public void openInBackground() {
+        writeExecutor.execute(() -> {
+            try {
+                getDatabaseHelper().getWritableDatabase();
+            } catch (Exception e) {
+                Log.e("ContactRepository", "Error opening database", e);
+            }
+        });
+    }
+
+    // Run a read, sharing the result with identical reads that are still in flight
+    @SuppressWarnings("unchecked")
+    public <T> void read(String key, Query<T> query, Callback<T> callback) {
+        synchronized (inFlightReads) {
+            List<Callback<?>> waiting = inFlightReads.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlightReads.put(key, waiting);
+        }
+
+        readExecutor.execute(() -> {
+            T result = runSafely(query);
+            List<Callback<?>> waiting;
+            synchronized (inFlightReads) {
+                waiting = inFlightReads.remove(key);
+            }
+            mainHandler.post(() -> {
+                for (Callback<?> waitingCallback : waiting) {
+                    ((Callback<T>) waitingCallback).onResult(result);
+                }
+            });
+        });
+    }
+
+    // Run a write, writes are never coalesced
+    public <T> void write(Query<T> query, Callback<T> callback) {
+        run(writeExecutor, query, callback);
+    }
+
+    private <T> void run(ExecutorService executor, Query<T> query, Callback<T> callback) {
+        executor.execute(() -> {
+            T result = runSafely(query);
+            if (callback != null) {
+                mainHandler.post(() -> callback.onResult(result));
+            }
+        });
+    }
+
+    private <T> T runSafely(Query<T> query) {
+        try {
+            return query.run(getDatabaseHelper());
+        } catch (Exception e) {
+            Log.e("ContactRepository", "Error running database query", e);
+            return null;
+        }
+    }
+
+    // Count all contacts
+    public void loadContactCount(Callback<Integer> callback) {
+        read("count", DatabaseHelper::getContactCount, callback);
+    }
+
+    // Load a window of contacts in the list order
+    public void loadContactsPage(int offset, int limit, Callback<ArrayList<Contact>> callback) {
+        DatabaseHelper.SortOrder order = sortOrder;
+        read("page:" + order + ":" + offset + ":" + limit, db -> {
+            DatabaseHelper.Versioned<ArrayList<Contact>> page =
+                    db.readAtVersion(() -> db.getContactsPage(order, offset, limit));
+            contactCache.putAll(page.value, page.version);
+            return page.value;
+        }, callback);
+    }
+
+    // Load a single contact, from the cache when it is already there
+    public void loadContact(int contactId, Callback<Contact> callback) {
+        Contact cachedContact = contactCache.get(contactId);
+        if (cachedContact != null) {
+            mainHandler.post(() -> callback.onResult(cachedContact));
+            return;
+        }
+        read("contact:" + contactId, db -> {
+            DatabaseHelper.Versioned<Contact> contact = db.readAtVersion(() -> db.getContactById(contactId));
+            contactCache.put(contact.value, contact.version);
+            return contact.value;
+        }, callback);
+    }
+
+    // Search contacts by keyword
+    public void searchContacts(String keyword, Callback<ArrayList<Contact>> callback) {
+        read("search:" + keyword, db -> {
+            DatabaseHelper.Versioned<ArrayList<Contact>> matches = db.readAtVersion(() -> {
+                ArrayList<Contact> nameMatches = searchNamePrefix(db, keyword);
+                return nameMatches != null ? nameMatches : db.searchContacts(keyword);
+            });
+            contactCache.putAll(matches.value, matches.version);
+            return matches.value;
+        }, callback);
+    }
+
+    // The database ranks names starting with a one-word keyword first, in name order
+    // When a full page of names starts with it, that page is the first names of the run in the name index
+    // Returns null when the full-text search has to answer, e.g. a short run or the index not built yet
+    private ArrayList<Contact> searchNamePrefix(DatabaseHelper db, String keyword) {
+        if (!nameIndex.isReady() || !isNamePrefix(keyword)) {
+            return null;
+        }
+        long start = Metrics.SEARCH_NAME_PREFIX.start();
+        List<Integer> contactIds = nameIndex.findPrefix(keyword, DatabaseHelper.SEARCH_RESULT_LIMIT);
+        if (contactIds.size() < DatabaseHelper.SEARCH_RESULT_LIMIT) {
+            return null;
+        }
+        ArrayList<Contact> contacts = db.getContactsByIds(contactIds);
+        // The index is updated just after each commit, a contact renamed or deleted since sends the search to the database
+        for (Contact contact : contacts) {
+            if (!ContactNameIndex.foldCase(contact.getName()).startsWith(keyword)) {
+                return null;
+            }
+        }
+        if (contacts.size() < DatabaseHelper.SEARCH_RESULT_LIMIT) {
+            return null;
+        }
+        Metrics.SEARCH_NAME_PREFIX.stop(start);
+        return contacts;
+    }
+
+    // Lower case ASCII letters and digits only, so COLLATE NOCASE, LIKE and the full-text tokenizer all agree on it
+    private static boolean isNamePrefix(String keyword) {
+        if (keyword.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Build the typo-tolerant index in the background if it is not built yet, e.g. when the user starts searching
+    // It is built on a read thread, writes committed meanwhile are caught up once it is done
+    public void loadFuzzyIndex() {
+        if (fuzzyIndex.needsBuild()) {
+            run(readExecutor, db -> {
+                fuzzyIndex.build(db);
+                return null;
+            }, null);
+        }
+    }
+
+    // Search contacts allowing typos, closest matches first
+    // Empty until loadFuzzyIndex has finished
+    public void fuzzySearchContacts(String normalizedQuery, Callback<ArrayList<Contact>> callback) {
+        read("fuzzy:" + normalizedQuery, db -> {
+            long start = Metrics.SEARCH_FUZZY.start();
+            List<Integer> contactIds = fuzzyIndex.search(normalizedQuery, FuzzyContactIndex.RESULT_LIMIT);
+            DatabaseHelper.Versioned<ArrayList<Contact>> matches = db.readAtVersion(() -> db.getContactsByIds(contactIds));
+            contactCache.putAll(matches.value, matches.version);
+            Metrics.SEARCH_FUZZY.stop(start);
+            return matches.value;
+        }, callback);
+    }
+
+    // Contacts with a birthday from today to the given number of days ahead, soonest first
+    public void loadUpcomingBirthdays(int days, Callback<ArrayList<Contact>> callback) {
+        long today = DateOfBirth.today();
+        read("birthdays:" + today + ":" + days, db -> {
+            DatabaseHelper.Versioned<ArrayList<Contact>> contacts =
+                    db.readAtVersion(() -> db.getUpcomingBirthdays(today, days));
+            contactCache.putAll(contacts.value, contacts.version);
+            return contacts.value;
+        }, callback);
+    }
+
+    // Contacts born from one day to another inclusive, both as days since 1970-01-01
+    public void loadContactsBornBetween(long fromEpochDay, long toEpochDay, Callback<ArrayList<Contact>> callback) {
+        read("born:" + fromEpochDay + ":" + toEpochDay, db -> {
+            DatabaseHelper.Versioned<ArrayList<Contact>> contacts =
+                    db.readAtVersion(() -> db.getContactsBornBetween(fromEpochDay, toEpochDay));
+            contactCache.putAll(contacts.value, contacts.version);
+            return contacts.value;
+        }, callback);
+    }
+
+    // Insert a new contact and return its row ID, the photo is a file name from ContactPhotos or null
+    public void insertContact(int avatarId, String name, String email, String dateOfBirth, String photo, Callback<Long> callback) {
+        write(db -> db.insertContactDetails(avatarId, name, email, dateOfBirth, photo), callback);
+    }
+
+    // Update an existing contact, a replaced photo file is deleted
+    public void updateContact(int contactId, int avatarId, String name, String email, String dateOfBirth, String photo,
+                              Callback<Boolean> callback) {
+        write(db -> {
+            boolean updated = db.updateContactDetails(contactId, avatarId, name, email, dateOfBirth, photo);
+            deleteUnusedPhotos(db);
+            return updated;
+        }, callback);
+    }
+
+    // Move contacts to the trash by ID in one transaction, the result can be undone with restoreContacts
+    // Photos are kept until the contacts are purged
+    public void deleteContacts(List<Integer> contactIds, Callback<DatabaseHelper.Deletion> callback) {
+        List<Integer> idsToDelete = new ArrayList<>(contactIds);
+        write(db -> db.deleteContactsByIds(idsToDelete), callback);
+    }
+
+    // Move every contact except the given IDs to the trash, the result can be undone with restoreContacts
+    public void deleteAllContactsExcept(List<Integer> keptContactIds, Callback<DatabaseHelper.Deletion> callback) {
+        List<Integer> idsToKeep = new ArrayList<>(keptContactIds);
+        write(db -> db.deleteAllContactsExcept(idsToKeep), callback);
+    }
+
+    // Undo a delete that has not been purged yet and return how many contacts came back
+    public void restoreContacts(DatabaseHelper.Deletion deletion, Callback<Integer> callback) {
+        write(db -> db.restoreContacts(deletion.deletedAt), callback);
+    }
+
+    // Remove contacts moved to the trash before the given time for good, then shrink the database file
+    // Each batch is its own write, so the purge never holds the writer for long
+    // Every batch keeps the same cutoff, pass a time before any delete whose undo may still be showing
+    public void purgeDeletedContacts(long deletedBefore) {
+        write(db -> {
+            int purgedCount = db.purgeDeletedContacts(deletedBefore, PURGE_BATCH_SIZE);
+            if (purgedCount == PURGE_BATCH_SIZE) {
+                purgeDeletedContacts(deletedBefore);
+            } else {
+                deleteUnusedPhotos(db);
+                if (db.isIncrementalVacuumEnabled()) {
+                    compactDatabase();
+                } else {
+                    // The one-time rewrite waits for the device to be idle instead of holding up writes now
+                    IncrementalVacuumJobService.schedule(appContext);
+                }
+            }
+            return purgedCount;
+        }, null);
+    }
+
+    // Give the pages the purge freed back to the file system a batch at a time
+    private void compactDatabase() {
+        write(db -> {
+            int freePages = db.compact(COMPACT_PAGE_COUNT);
+            if (freePages > 0) {
+                compactDatabase();
+            }
+            return freePages;
+        }, null);
+    }
+
+    // Find groups of likely duplicate contacts in the background
+    public void findDuplicates(Callback<List<ContactDeduplicator.DuplicateGroup>> callback) {
+        read("duplicates", db -> new ContactDeduplicator(db).findDuplicates(), callback);
+    }
+
+    // Merge each group into its oldest contact in one transaction, the result can be undone with restoreContacts
+    // The merged contacts go to the trash, so their photos are kept until they are purged
+    public void mergeDuplicates(List<ContactDeduplicator.DuplicateGroup> groups, Callback<DatabaseHelper.Deletion> callback) {
+        List<List<Integer>> groupIds = new ArrayList<>(groups.size());
+        for (ContactDeduplicator.DuplicateGroup group : groups) {
+            groupIds.add(group.getContactIds());
+        }
+        write(db -> db.mergeContacts(groupIds), callback);
+    }
+
+    // Photo files are outside the database, remove the ones the last write left without a contact
+    private void deleteUnusedPhotos(DatabaseHelper db) {
+        contactPhotos.deleteUnusedPhotos(db.getPhotoNames());
+    }
+
+    // Import contacts from a CSV or vCard stream in batched transactions
+    // Progress is posted to the main thread, the result is null if the file could not be read
+    public void importContacts(InputStream inputStream, long totalBytes,
+                               ContactImporter.OnImportProgressListener progressListener,
+                               Callback<ContactImporter.ImportResult> callback) {
+        write(db -> {
+            ContactImporter importer = new ContactImporter(db, (importedCount, bytesRead, total) ->
+                    mainHandler.post(() -> progressListener.onImportProgress(importedCount, bytesRead, total)));
+            try (InputStream stream = inputStream) {
+                return importer.importContacts(stream, totalBytes);
+            } catch (IOException e) {
+                Log.e("ContactRepository", "Error importing contacts", e);
+                return null;
+            }
+        }, callback);
+    }
+
+    // Export every contact to a stream in the background
+    // The returned exporter can be cancelled, the result is the exported count or null on failure
+    public ContactExporter exportContacts(OutputStream outputStream, ContactExporter.Format format,
+                                          ContactExporter.OnExportProgressListener progressListener,
+                                          Callback<Integer> callback) {
+        ContactExporter exporter = new ContactExporter(format, (exportedCount, totalCount) ->
+                mainHandler.post(() -> progressListener.onExportProgress(exportedCount, totalCount)));
+        // Exports only read, so they run alongside writes instead of holding the writer
+        run(readExecutor, db -> {
+            try (OutputStream stream = outputStream) {
+                return exporter.exportContacts(db, stream);
+            } catch (IOException e) {
+                Log.e("ContactRepository", "Error exporting contacts", e);
+                return null;
+            }
+        }, callback);
+        return exporter;
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.contactdatabase;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Debounced, incremental search over contacts
+// A query that extends the previous one filters the previous results instead of querying the database again
+// Searches superseded by a newer query are cancelled and their results are dropped
+// When few contacts match exactly, close matches from the typo-tolerant index are added after them
+public class ContactSearchEngine {
+    private static final long DEBOUNCE_DELAY_MS = 150;
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+    // Fewer exact matches than this suggests a typo
+    private static final int FUZZY_FALLBACK_THRESHOLD = 10;
+
+    private final ContactRepository repository;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Shared by every engine, so a recreated activity does not leave a thread behind
+    private static final ExecutorService filterExecutor = Executors.newSingleThreadExecutor();
+
+    // Only touched on the main thread
+    private int generation;
+    private Runnable pendingSearch;
+    private Future<?> runningFilter;
+    private String lastQuery;
+    private List<Contact> lastResults;
+    private boolean lastResultsComplete;
+    // True from a search being scheduled until its results are delivered
+    private boolean searching;
+
+    public ContactSearchEngine(ContactRepository repository) {
+        this.repository = repository;
+    }
+
+    // Receive search results on the main thread
+    public interface OnSearchResultsListener {
+        void onSearchResults(String query, List<Contact> results);
+    }
+
+    // Schedule a search once typing pauses, replacing any search that has not finished
+    public void search(String query, OnSearchResultsListener listener) {
+        cancel();
+        repository.loadFuzzyIndex();
+        searching = true;
+        int searchGeneration = generation;
+        pendingSearch = () -> {
+            pendingSearch = null;
+            runSearch(query, searchGeneration, listener);
+        };
+        mainHandler.postDelayed(pendingSearch, DEBOUNCE_DELAY_MS);
+    }
+
+    // Cancel the pending and running searches
+    public void cancel() {
+        generation++;
+        searching = false;
+        if (pendingSearch != null) {
+            mainHandler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+        if (runningFilter != null) {
+            runningFilter.cancel(true);
+            runningFilter = null;
+        }
+    }
+
+    // Forget cached results, used when contacts have changed in the database
+    public void invalidate() {
+        lastQuery = null;
+        lastResults = null;
+        lastResultsComplete = false;
+    }
+
+    // Apply committed changes to the cached results and return the updated results
+    // Returns null when they cannot be patched, such as while a search is still running, and the query has to run again
+    public List<Contact> applyChanges(ContactChanges changes) {
+        if (changes.reset || searching || lastResults == null) {
+            invalidate();
+            return null;
+        }
+
+        HashSet<Integer> changedIds = new HashSet<>();
+        for (ContactChanges.Change change : changes.changes) {
+            changedIds.add(change.contactId);
+        }
+        ArrayList<Contact> results = new ArrayList<>(lastResults.size());
+        for (Contact contact : lastResults) {
+            if (!changedIds.contains(contact.getId())) {
+                results.add(contact);
+            }
+        }
+        // Inserted and edited contacts are matched and ranked the same way a new search would
+        String[] queryWords = lastQuery.split(" ");
+        for (ContactChanges.Change change : changes.changes) {
+            if (change.contact != null && matchesAllWords(change.contact, queryWords)) {
+                results.add(change.contact);
+            }
+        }
+        Collections.sort(results, rankingComparator(lastQuery));
+        if (results.size() > DatabaseHelper.SEARCH_RESULT_LIMIT) {
+            results.subList(DatabaseHelper.SEARCH_RESULT_LIMIT, results.size()).clear();
+        }
+        lastResults = results;
+        return results;
+    }
+
+    private void runSearch(String query, int searchGeneration, OnSearchResultsListener listener) {
+        long start = Metrics.SEARCH.start();
+        String normalizedQuery = normalize(query);
+
+        // Refine the previous results when the new query only adds to the previous one
+        if (lastResults != null && lastResultsComplete && !lastQuery.isEmpty()
+                && normalizedQuery.startsWith(lastQuery)) {
+            List<Contact> previousResults = lastResults;
+            runningFilter = filterExecutor.submit(() -> {
+                long refineStart = Metrics.SEARCH_REFINE.start();
+                List<Contact> refinedResults = filter(previousResults, normalizedQuery);
+                if (refinedResults == null) {
+                    return;
+                }
+                Metrics.SEARCH_REFINE.stop(refineStart);
+                mainHandler.post(() -> deliver(query, normalizedQuery, refinedResults, true, searchGeneration, listener, start));
+            });
+            return;
+        }
+
+        repository.searchContacts(normalizedQuery, results -> {
+            if (results == null || searchGeneration != generation) {
+                return;
+            }
+            if (results.size() >= FUZZY_FALLBACK_THRESHOLD) {
+                boolean complete = results.size() < DatabaseHelper.SEARCH_RESULT_LIMIT;
+                deliver(query, normalizedQuery, results, complete, searchGeneration, listener, start);
+                return;
+            }
+
+            repository.fuzzySearchContacts(normalizedQuery, closeMatches -> {
+                List<Contact> combined = new ArrayList<>(results);
+                if (closeMatches != null) {
+                    HashSet<Integer> exactIds = new HashSet<>();
+                    for (Contact contact : results) {
+                        exactIds.add(contact.getId());
+                    }
+                    for (Contact contact : closeMatches) {
+                        if (!exactIds.contains(contact.getId())) {
+                            combined.add(contact);
+                        }
+                    }
+                }
+                // Never refined, filtering by exact words would drop the close matches
+                deliver(query, normalizedQuery, combined, false, searchGeneration, listener, start);
+            });
+        });
+    }
+
+    // Search time runs from the debounced search starting to its results being shown
+    private void deliver(String query, String normalizedQuery, List<Contact> results, boolean complete,
+                         int searchGeneration, OnSearchResultsListener listener, long start) {
+        if (searchGeneration != generation) {
+            return;
+        }
+        runningFilter = null;
+        searching = false;
+        lastQuery = normalizedQuery;
+        lastResults = results;
+        lastResultsComplete = complete;
+        listener.onSearchResults(query, results);
+        Metrics.SEARCH.stop(start);
+    }
+
+    // Filter contacts with the same word-prefix rules as the full-text index
+    // Returns null when the filter was cancelled part way through
+    private List<Contact> filter(List<Contact> contacts, String normalizedQuery) {
+        String[] queryWords = normalizedQuery.split(" ");
+        ArrayList<Contact> matches = new ArrayList<>();
+        for (int i = 0; i < contacts.size(); i++) {
+            if (i % CANCELLATION_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            Contact contact = contacts.get(i);
+            if (matchesAllWords(contact, queryWords)) {
+                matches.add(contact);
+            }
+        }
+
+        // Rank the same way the database does
+        Collections.sort(matches, rankingComparator(normalizedQuery));
+        return matches;
+    }
+
+    private static boolean matchesAllWords(Contact contact, String[] queryWords) {
+        String[] contactWords = splitWords(contact.getName() + " " + contact.getEmail() + " " + contact.getDateOfBirth());
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String contactWord : contactWords) {
+                if (contactWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Names starting with the query first, then names with a word starting with it, then by name
+    private static Comparator<Contact> rankingComparator(String normalizedQuery) {
+        return (first, second) -> {
+            int rankComparison = Integer.compare(rank(first, normalizedQuery), rank(second, normalizedQuery));
+            if (rankComparison != 0) {
+                return rankComparison;
+            }
+            int nameComparison = first.getName().compareToIgnoreCase(second.getName());
+            return nameComparison != 0 ? nameComparison : Integer.compare(first.getId(), second.getId());
+        };
+    }
+
+    private static int rank(Contact contact, String normalizedQuery) {
+        String name = contact.getName().toLowerCase();
+        if (name.startsWith(normalizedQuery)) {
+            return 0;
+        }
+        return name.contains(" " + normalizedQuery) ? 1 : 2;
+    }
+
+    // Lower case the query and collapse separators to single spaces
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder();
+        for (String word : splitWords(query)) {
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            normalized.append(word);
+        }
+        return normalized.toString();
+    }
+
+    private static String[] splitWords(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase().split("[^a-z0-9\\u0080-\\uffff]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+}
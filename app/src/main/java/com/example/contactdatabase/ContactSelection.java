@@ -0,0 +1,95 @@
+package com.example.contactdatabase;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// Selected contacts keyed by contact ID rather than adapter position
+// IDs are kept in a bitset, when inverted the bitset holds the IDs that are NOT selected
+// This makes select all and invert O(1) and keeps the selection valid when the list changes
+public class ContactSelection {
+    private static final String IDS_KEY = "selectedContactIds";
+    private static final String INVERTED_KEY = "selectionInverted";
+
+    private final BitSet ids = new BitSet();
+    private boolean inverted;
+
+    // Unknown contacts, such as rows still loading, follow the select all state
+    public boolean isSelected(Contact contact) {
+        return contact != null ? isSelected(contact.getId()) : inverted;
+    }
+
+    public boolean isSelected(int contactId) {
+        return ids.get(contactId) != inverted;
+    }
+
+    public void setSelected(int contactId, boolean selected) {
+        ids.set(contactId, selected != inverted);
+    }
+
+    public void toggle(int contactId) {
+        ids.flip(contactId);
+    }
+
+    public void selectAll() {
+        ids.clear();
+        inverted = true;
+    }
+
+    public void clear() {
+        ids.clear();
+        inverted = false;
+    }
+
+    public void invert() {
+        inverted = !inverted;
+    }
+
+    // When inverted every contact is selected except the explicit IDs
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    public boolean isEmpty() {
+        return !inverted && ids.isEmpty();
+    }
+
+    // Number of IDs stored explicitly, selected ones or excluded ones when inverted
+    public int getExplicitCount() {
+        return ids.cardinality();
+    }
+
+    // IDs stored explicitly, selected ones or excluded ones when inverted
+    public List<Integer> getExplicitIds() {
+        List<Integer> explicitIds = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            explicitIds.add(id);
+        }
+        return explicitIds;
+    }
+
+    // Keep the selection across configuration changes
+    // Only the explicit IDs are saved, a bitset would grow with the largest ID ever issued rather than the selection
+    public void saveState(Bundle outState) {
+        int[] savedIds = new int[ids.cardinality()];
+        int index = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            savedIds[index++] = id;
+        }
+        outState.putIntArray(IDS_KEY, savedIds);
+        outState.putBoolean(INVERTED_KEY, inverted);
+    }
+
+    public void restoreState(Bundle savedState) {
+        clear();
+        int[] savedIds = savedState.getIntArray(IDS_KEY);
+        if (savedIds != null) {
+            for (int id : savedIds) {
+                ids.set(id);
+            }
+        }
+        inverted = savedState.getBoolean(INVERTED_KEY, false);
+    }
+}
@@ -4,10 +4,21 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "contact_details_database";
@@ -16,8 +27,87 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String NAME_COLUMN = "name";
     private static final String EMAIL_COLUMN = "email";
     private static final String DOB_COLUMN = "date_of_birth";
+    // Date of birth as days since 1970-01-01 so it sorts and compares as a number, null if unparseable
+    private static final String DOB_EPOCH_DAY_COLUMN = "dob_epoch_day";
+    // Month and day of birth as MMDD, e.g. 305 for 5 March, so upcoming birthdays are an index range
+    private static final String BIRTHDAY_COLUMN = "birthday";
+    // File name of the contact's photo, the image itself is stored by ContactPhotos
+    private static final String PHOTO_COLUMN = "photo";
+    // When the contact was last inserted or edited in milliseconds since 1970, 0 for contacts from before it was kept
+    private static final String MODIFIED_COLUMN = "modified_at";
+    // When the contact was moved to the trash, null for live contacts, also identifies the delete for undo
+    private static final String DELETED_COLUMN = "deleted_at";
+    private static final String SEARCH_TABLE = "contact_search";
+    private static final int DATABASE_VERSION = 7;
+    // Contacts not in the trash, every read of contacts is limited to them
+    private static final String LIVE_SELECTION = DELETED_COLUMN + " IS NULL";
+    // Value of PRAGMA auto_vacuum once freed pages are only given back by PRAGMA incremental_vacuum
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Matches the name index so ordered queries walk the index instead of sorting
+    private static final String NAME_ORDER = NAME_COLUMN + " COLLATE NOCASE, " + ID_COLUMN;
+    public static final int SEARCH_RESULT_LIMIT = 500;
+    // Stays below the bound variable limit of older SQLite builds
+    private static final int DELETE_CHUNK_SIZE = 500;
+    // Rows written per transaction during bulk inserts
+    private static final int BULK_INSERT_BATCH_SIZE = 1000;
+    // Deleted rows get list positions only up to this many, larger deletes make the list reload
+    private static final int POSITIONED_DELETE_LIMIT = 100;
 
-    private final SQLiteDatabase contactDatabase;
+    private static DatabaseHelper instance;
+
+    // Data version, bumped around every commit so reads can tell exactly which writes they include
+    private final AtomicLong commitsStarted = new AtomicLong();
+    private final AtomicLong commitsFinished = new AtomicLong();
+    private final AtomicLong lastDeletedAt = new AtomicLong();
+
+    // Listen to committed writes, called on the writing thread right after the commit
+    public interface OnContactsChangedListener {
+        void onContactsChanged(ContactChanges changes);
+    }
+
+    private final List<OnContactsChangedListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Orders the contact list can be shown in, each one walks an index on its key
+    // Ties are broken by ID, so every order is total and a page can seek from any row
+    public enum SortOrder {
+        NAME(NAME_COLUMN, " COLLATE NOCASE", false),
+        EMAIL(EMAIL_COLUMN, " COLLATE NOCASE", false),
+        // Dates of birth that could not be parsed have no key, SQLite sorts them first
+        DATE_OF_BIRTH(DOB_EPOCH_DAY_COLUMN, "", false),
+        RECENTLY_MODIFIED(MODIFIED_COLUMN, "", true);
+
+        private final String column;
+        private final String key;
+        private final boolean descending;
+
+        SortOrder(String column, String collation, boolean descending) {
+            this.column = column;
+            this.key = column + collation;
+            this.descending = descending;
+        }
+
+        // Only the date of birth can be missing
+        private boolean hasMissingKeys() {
+            return this == DATE_OF_BIRTH;
+        }
+
+        private String orderBy(boolean reversed) {
+            String direction = descending != reversed ? " DESC" : "";
+            return key + direction + ", " + ID_COLUMN + direction;
+        }
+
+        // Operator that keeps the rows after a key in list order, or before it
+        private String comparison(boolean after) {
+            return after != descending ? ">" : "<";
+        }
+    }
+
+    // Order the list is shown in, positions in published changes are in this order
+    private volatile SortOrder listSortOrder = SortOrder.NAME;
+
+    // Columns a Contact is built from
+    private static final String[] CONTACT_COLUMNS = {
+            ID_COLUMN, AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN, PHOTO_COLUMN};
 
     private static final String DATABASE_CREATE_QUERY = String.format(
             "CREATE TABLE %s (" +
@@ -25,125 +115,1078 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     "%s INT NOT NULL, " +
                     "%s TEXT NOT NULL, " +
                     "%s TEXT NOT NULL, " +
-                    "%s TEXT NOT NULL);",
+                    "%s TEXT NOT NULL, " +
+                    "%s INTEGER, " +
+                    "%s TEXT, " +
+                    "%s INTEGER, " +
+                    "%s INTEGER NOT NULL DEFAULT 0, " +
+                    "%s INTEGER);",
             DATABASE_NAME,
             ID_COLUMN,
             AVATAR_COLUMN,
             NAME_COLUMN,
             EMAIL_COLUMN,
+            DOB_COLUMN,
+            DOB_EPOCH_DAY_COLUMN,
+            PHOTO_COLUMN,
+            BIRTHDAY_COLUMN,
+            MODIFIED_COLUMN,
+            DELETED_COLUMN);
+
+    // Indexes for ordered paging by name, lookups by email and sorting by date of birth
+    private static final String[] INDEX_QUERIES = {
+            String.format("CREATE INDEX IF NOT EXISTS contact_name_index ON %s (%s COLLATE NOCASE, %s);",
+                    DATABASE_NAME, NAME_COLUMN, ID_COLUMN),
+            String.format("CREATE INDEX IF NOT EXISTS contact_email_index ON %s (%s COLLATE NOCASE);",
+                    DATABASE_NAME, EMAIL_COLUMN),
+            String.format("CREATE INDEX IF NOT EXISTS contact_dob_index ON %s (%s);",
+                    DATABASE_NAME, DOB_EPOCH_DAY_COLUMN),
+    };
+
+    // Added after the other indexes, so it is created separately from them
+    private static final String BIRTHDAY_INDEX_QUERY = String.format(
+            "CREATE INDEX IF NOT EXISTS contact_birthday_index ON %s (%s);", DATABASE_NAME, BIRTHDAY_COLUMN);
+
+    // For the recently modified order, added with the modified column
+    private static final String MODIFIED_INDEX_QUERY = String.format(
+            "CREATE INDEX IF NOT EXISTS contact_modified_index ON %s (%s);", DATABASE_NAME, MODIFIED_COLUMN);
+
+    // From version 7 the indexes above only hold live contacts, so contacts in the trash never slow a list query
+    // The deleted column is always null in them, it is only there so counts are answered from the index alone
+    private static final String[] LIVE_INDEX_NAMES = {
+            "contact_name_index", "contact_email_index", "contact_dob_index", "contact_birthday_index",
+            "contact_modified_index"};
+    private static final String[] LIVE_INDEX_KEYS = {
+            NAME_COLUMN + " COLLATE NOCASE", EMAIL_COLUMN + " COLLATE NOCASE", DOB_EPOCH_DAY_COLUMN, BIRTHDAY_COLUMN,
+            MODIFIED_COLUMN};
+
+    // Contacts in the trash, found by the purge by when they were deleted
+    private static final String DELETED_INDEX_QUERY = String.format(
+            "CREATE INDEX IF NOT EXISTS contact_deleted_index ON %1$s (%2$s) WHERE %2$s IS NOT NULL;",
+            DATABASE_NAME, DELETED_COLUMN);
+
+    // Full-text index over the searchable columns, the contact table holds the content
+    private static final String SEARCH_TABLE_CREATE_QUERY = String.format(
+            "CREATE VIRTUAL TABLE %s USING fts4(content=\"%s\", %s, %s, %s, prefix=\"1,2,3\");",
+            SEARCH_TABLE,
+            DATABASE_NAME,
+            NAME_COLUMN,
+            EMAIL_COLUMN,
             DOB_COLUMN);
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, 1);
-        contactDatabase = getWritableDatabase();
+    // Triggers keep the full-text index in sync with every insert, update and delete
+    private static final String[] SEARCH_TRIGGER_QUERIES = {
+            String.format("CREATE TRIGGER %1$s_before_update BEFORE UPDATE OF %4$s, %5$s, %6$s ON %2$s BEGIN " +
+                    "DELETE FROM %1$s WHERE docid = old.%3$s; END;",
+                    SEARCH_TABLE, DATABASE_NAME, ID_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN),
+            String.format("CREATE TRIGGER %1$s_before_delete BEFORE DELETE ON %2$s BEGIN " +
+                    "DELETE FROM %1$s WHERE docid = old.%3$s; END;", SEARCH_TABLE, DATABASE_NAME, ID_COLUMN),
+            String.format("CREATE TRIGGER %1$s_after_update AFTER UPDATE OF %4$s, %5$s, %6$s ON %2$s BEGIN " +
+                    "INSERT INTO %1$s(docid, %4$s, %5$s, %6$s) VALUES (new.%3$s, new.%4$s, new.%5$s, new.%6$s); END;",
+                    SEARCH_TABLE, DATABASE_NAME, ID_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN),
+            String.format("CREATE TRIGGER %1$s_after_insert AFTER INSERT ON %2$s BEGIN " +
+                    "INSERT INTO %1$s(docid, %4$s, %5$s, %6$s) VALUES (new.%3$s, new.%4$s, new.%5$s, new.%6$s); END;",
+                    SEARCH_TABLE, DATABASE_NAME, ID_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN),
+    };
+
+    // One helper owns the database for the whole process, it stays open until the process ends
+    // Nothing is opened here, the first query opens it on whichever background thread runs it
+    // Write-ahead logging lets readers run on their own connections while a write is in progress
+    private DatabaseHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    // A helper on its own database file, e.g. so benchmarks never touch the user's contacts
+    DatabaseHelper(Context context, String databaseFileName) {
+        super(context, databaseFileName, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         try {
             db.execSQL(DATABASE_CREATE_QUERY);
+            createLiveIndexes(db);
+            createSearchIndex(db);
         } catch (Exception e) {
             Log.e("DatabaseHelper", "Error creating database: " + e.getMessage());
         }
     }
 
+    // Apply each migration in turn so a database from any older version keeps its rows
+    // The whole upgrade runs in one transaction, a failure rolls it back and is retried on the next open
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         try {
-            db.execSQL("DROP TABLE IF EXISTS " + DATABASE_NAME);
+            for (int version = oldVersion + 1; version <= newVersion; version++) {
+                migrateToVersion(db, version);
+            }
             Log.w(this.getClass().getName(), DATABASE_NAME + " table upgraded from version " + oldVersion + " to " + newVersion);
-            onCreate(db);
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             Log.e("DatabaseHelper", "Error upgrading database: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    private void migrateToVersion(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Full-text search index, existing rows are indexed in place
+                createSearchIndex(db);
+                break;
+            case 3:
+                // Search triggers only fire when searchable columns change
+                for (String trigger : new String[]{"before_update", "after_update"}) {
+                    db.execSQL("DROP TRIGGER IF EXISTS " + SEARCH_TABLE + "_" + trigger);
+                }
+                db.execSQL(SEARCH_TRIGGER_QUERIES[0]);
+                db.execSQL(SEARCH_TRIGGER_QUERIES[2]);
+                // Sortable date of birth filled from the existing text, then the indexes
+                db.execSQL("ALTER TABLE " + DATABASE_NAME + " ADD COLUMN " + DOB_EPOCH_DAY_COLUMN + " INTEGER");
+                fillDobEpochDays(db);
+                createIndexes(db);
+                break;
+            case 4:
+                // Contact photos, existing contacts keep their bundled avatar
+                db.execSQL("ALTER TABLE " + DATABASE_NAME + " ADD COLUMN " + PHOTO_COLUMN + " TEXT");
+                break;
+            case 5:
+                // Birthdays by time of year, worked out from the epoch days inside the database
+                db.execSQL("ALTER TABLE " + DATABASE_NAME + " ADD COLUMN " + BIRTHDAY_COLUMN + " INTEGER");
+                db.execSQL(String.format(
+                        "UPDATE %1$s SET %2$s = CAST(strftime('%%m%%d', %3$s * 86400, 'unixepoch') AS INTEGER) " +
+                                "WHERE %3$s IS NOT NULL;",
+                        DATABASE_NAME, BIRTHDAY_COLUMN, DOB_EPOCH_DAY_COLUMN));
+                db.execSQL(BIRTHDAY_INDEX_QUERY);
+                break;
+            case 6:
+                // Recently modified order, existing contacts were never modified and fall back to newest first
+                db.execSQL("ALTER TABLE " + DATABASE_NAME + " ADD COLUMN " + MODIFIED_COLUMN + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL(MODIFIED_INDEX_QUERY);
+                break;
+            case 7:
+                // Soft delete, the list indexes are rebuilt to leave out contacts in the trash
+                db.execSQL("ALTER TABLE " + DATABASE_NAME + " ADD COLUMN " + DELETED_COLUMN + " INTEGER");
+                for (String indexName : LIVE_INDEX_NAMES) {
+                    db.execSQL("DROP INDEX IF EXISTS " + indexName);
+                }
+                createLiveIndexes(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    private void createIndexes(SQLiteDatabase db) {
+        for (String indexQuery : INDEX_QUERIES) {
+            db.execSQL(indexQuery);
+        }
+    }
+
+    private void createLiveIndexes(SQLiteDatabase db) {
+        for (int i = 0; i < LIVE_INDEX_NAMES.length; i++) {
+            db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s, %s, %s) WHERE %s;",
+                    LIVE_INDEX_NAMES[i], DATABASE_NAME, LIVE_INDEX_KEYS[i], ID_COLUMN, DELETED_COLUMN, LIVE_SELECTION));
+        }
+        db.execSQL(DELETED_INDEX_QUERY);
+    }
+
+    // Limit a selection to contacts not in the trash
+    private static String live(String selection) {
+        return selection == null ? LIVE_SELECTION : LIVE_SELECTION + " AND (" + selection + ")";
+    }
+
+    // Parse every stored d/M/yyyy date of birth into the epoch day column
+    private void fillDobEpochDays(SQLiteDatabase db) {
+        SQLiteStatement updateStatement = db.compileStatement(
+                "UPDATE " + DATABASE_NAME + " SET " + DOB_EPOCH_DAY_COLUMN + " = ? WHERE " + ID_COLUMN + " = ?");
+        try (Cursor results = db.query(DATABASE_NAME, new String[]{ID_COLUMN, DOB_COLUMN},
+                null, null, null, null, null)) {
+            while (results.moveToNext()) {
+                Long epochDay = DateOfBirth.parseEpochDay(results.getString(1));
+                if (epochDay == null) {
+                    continue;
+                }
+                updateStatement.bindLong(1, epochDay);
+                updateStatement.bindLong(2, results.getInt(0));
+                updateStatement.executeUpdateDelete();
+            }
+        } finally {
+            updateStatement.close();
+        }
+    }
+
+    // Create the full-text index and its triggers, then index any existing rows
+    private void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL(SEARCH_TABLE_CREATE_QUERY);
+        for (String triggerQuery : SEARCH_TRIGGER_QUERIES) {
+            db.execSQL(triggerQuery);
+        }
+        db.execSQL("INSERT INTO " + SEARCH_TABLE + "(" + SEARCH_TABLE + ") VALUES ('rebuild');");
+    }
+
+    public void addOnContactsChangedListener(OnContactsChangedListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeOnContactsChangedListener(OnContactsChangedListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    // Publish change positions in the order the list is shown in from now on
+    public void setListSortOrder(SortOrder sortOrder) {
+        listSortOrder = sortOrder;
+    }
+
+    private void publishChanges(ContactChanges changes) {
+        for (OnContactsChangedListener listener : changeListeners) {
+            listener.onContactsChanged(changes);
+        }
+    }
+
+    // Reads run through readAtVersion
+    public interface Read<T> {
+        T run();
+    }
+
+    // A read result and the data version it reflects
+    public static class Versioned<T> {
+        public final T value;
+        public final long version;
+
+        Versioned(T value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    // Run reads against one version of the data and return that version with the result
+    // Reads that overlap a commit are repeated, so the result includes exactly the writes up to its version
+    public <T> Versioned<T> readAtVersion(Read<T> read) {
+        while (true) {
+            long version = commitsFinished.get();
+            T value = read.run();
+            if (commitsStarted.get() == version) {
+                return new Versioned<>(value, version);
+            }
+        }
+    }
+
+    // End the open transaction and return the data version it committed
+    private long endTransaction(SQLiteDatabase db) {
+        long version = commitsStarted.incrementAndGet();
+        try {
+            db.endTransaction();
+        } finally {
+            commitsFinished.set(version);
+        }
+        return version;
+    }
+
+    // Position of a contact in a sort order, which is the number of contacts sorted before it
+    // Each count is a range of the order's index, NO_POSITION when the contact does not exist
+    private int getPosition(SQLiteDatabase db, SortOrder sortOrder, int contactId) {
+        String[] sortKey = getSortKey(db, sortOrder, contactId);
+        if (sortKey == null) {
+            return ContactChanges.NO_POSITION;
+        }
+        String contactIdArg = String.valueOf(contactId);
+        String before = sortOrder.comparison(false);
+        // Contacts without a key come first, in ID order
+        if (sortKey[0] == null) {
+            return (int) DatabaseUtils.longForQuery(db, String.format(
+                    "SELECT COUNT(*) FROM %s WHERE %s IS NULL AND %s < ? AND %s",
+                    DATABASE_NAME, sortOrder.column, ID_COLUMN, LIVE_SELECTION),
+                    new String[]{contactIdArg});
+        }
+        String query = String.format(
+                "SELECT (SELECT COUNT(*) FROM %1$s WHERE %2$s %3$s ? AND %5$s) + " +
+                        "(SELECT COUNT(*) FROM %1$s WHERE %2$s = ? AND %4$s %3$s ? AND %5$s)",
+                DATABASE_NAME, sortOrder.key, before, ID_COLUMN, LIVE_SELECTION);
+        if (sortOrder.hasMissingKeys()) {
+            query += String.format(" + (SELECT COUNT(*) FROM %s WHERE %s IS NULL AND %s)",
+                    DATABASE_NAME, sortOrder.column, LIVE_SELECTION);
+        }
+        return (int) DatabaseUtils.longForQuery(db, query, new String[]{sortKey[0], sortKey[0], contactIdArg});
+    }
+
+    // A contact's key in a sort order as a one element array, the element is null when the contact has no key
+    // Null when the contact does not exist or is in the trash
+    private String[] getSortKey(SQLiteDatabase db, SortOrder sortOrder, int contactId) {
+        try (Cursor results = db.query(DATABASE_NAME, new String[]{sortOrder.column},
+                live(ID_COLUMN + " = ?"), new String[]{String.valueOf(contactId)}, null, null, null)) {
+            return results.moveToFirst() ? new String[]{results.getString(0)} : null;
         }
     }
 
     // Insert contact details into the database
-    public long insertContactDetails(int avatarId, String name, String email, String dateOfBirth) {
+    public long insertContactDetails(int avatarId, String name, String email, String dateOfBirth, String photo) {
+        long start = Metrics.DATABASE_INSERT.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
         ContentValues rowValues = new ContentValues();
         rowValues.put(AVATAR_COLUMN, avatarId);
         rowValues.put(NAME_COLUMN, name);
         rowValues.put(EMAIL_COLUMN, email);
+        putDateOfBirth(rowValues, dateOfBirth);
+        rowValues.put(PHOTO_COLUMN, photo);
+        rowValues.put(MODIFIED_COLUMN, System.currentTimeMillis());
+
+        SortOrder sortOrder = listSortOrder;
+        long contactId;
+        int position;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            contactId = contactDatabase.insertOrThrow(DATABASE_NAME, null, rowValues);
+            position = getPosition(contactDatabase, sortOrder, (int) contactId);
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        Contact contact = new Contact((int) contactId, avatarId, name, email, dateOfBirth, photo);
+        publishChanges(new ContactChanges(version, false, sortOrder, Collections.singletonList(new ContactChanges.Change(
+                ContactChanges.Type.INSERTED, contact.getId(), contact, ContactChanges.NO_POSITION, position))));
+        Metrics.DATABASE_INSERT.stop(start);
+        return contactId;
+    }
+
+    // The date of birth as shown, plus its epoch day and birthday when the text is a valid date
+    private static void putDateOfBirth(ContentValues rowValues, String dateOfBirth) {
+        Long epochDay = DateOfBirth.parseEpochDay(dateOfBirth);
         rowValues.put(DOB_COLUMN, dateOfBirth);
-        return contactDatabase.insertOrThrow(DATABASE_NAME, null, rowValues);
+        rowValues.put(DOB_EPOCH_DAY_COLUMN, epochDay);
+        rowValues.put(BIRTHDAY_COLUMN, epochDay == null ? null : DateOfBirth.toMonthDay(epochDay));
+    }
+
+    // Start a bulk insert that reuses one compiled statement and commits in batches
+    public BulkInsert beginBulkInsert() {
+        return new BulkInsert();
     }
 
-    // Retrieve all contact details from the database
+    // Inserts rows through a single compiled statement inside batched transactions
+    // Closing the bulk insert commits the final partial batch
+    public class BulkInsert implements Closeable {
+        private final SQLiteStatement insertStatement;
+        private int rowsInBatch;
+        private int insertedCount;
+
+        private final SQLiteDatabase contactDatabase = getWritableDatabase();
+
+        private BulkInsert() {
+            insertStatement = contactDatabase.compileStatement(String.format(
+                    "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    DATABASE_NAME, AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN, DOB_EPOCH_DAY_COLUMN,
+                    BIRTHDAY_COLUMN, MODIFIED_COLUMN));
+            contactDatabase.beginTransaction();
+        }
+
+        public void insert(int avatarId, String name, String email, String dateOfBirth) {
+            insertStatement.bindLong(1, avatarId);
+            insertStatement.bindString(2, name);
+            insertStatement.bindString(3, email);
+            insertStatement.bindString(4, dateOfBirth);
+            Long epochDay = DateOfBirth.parseEpochDay(dateOfBirth);
+            if (epochDay != null) {
+                insertStatement.bindLong(5, epochDay);
+                insertStatement.bindLong(6, DateOfBirth.toMonthDay(epochDay));
+            }
+            insertStatement.bindLong(7, System.currentTimeMillis());
+            insertStatement.executeInsert();
+            insertStatement.clearBindings();
+            insertedCount++;
+
+            // Commit the batch and start the next one
+            if (++rowsInBatch >= BULK_INSERT_BATCH_SIZE) {
+                contactDatabase.setTransactionSuccessful();
+                endTransaction(contactDatabase);
+                contactDatabase.beginTransaction();
+                rowsInBatch = 0;
+            }
+        }
+
+        public int getInsertedCount() {
+            return insertedCount;
+        }
+
+        // Too many rows to list, listeners are told to reload
+        @Override
+        public void close() {
+            contactDatabase.setTransactionSuccessful();
+            long version = endTransaction(contactDatabase);
+            insertStatement.close();
+            if (insertedCount > 0) {
+                publishChanges(ContactChanges.reset(version));
+            }
+        }
+    }
+
+    // Retrieve all contact details from the database ordered by name
     public ArrayList<Contact> getAllContacts() {
-        // Initialise a temporary table to hold contact details
-        Cursor results = contactDatabase.query(
+        return getAllContacts(SortOrder.NAME);
+    }
+
+    // Retrieve all contact details from the database in a sort order
+    public ArrayList<Contact> getAllContacts(SortOrder sortOrder) {
+        long start = Metrics.DATABASE_LOAD_ALL.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        ArrayList<Contact> contacts;
+        try (Cursor results = contactDatabase.query(
+                DATABASE_NAME, CONTACT_COLUMNS, LIVE_SELECTION, null, null, null, sortOrder.orderBy(false))) {
+            contacts = new ContactRow(results).readAll();
+        }
+        Metrics.DATABASE_LOAD_ALL.stop(start);
+        return contacts;
+    }
+
+    // Count all contacts in the database
+    public int getContactCount() {
+        long start = Metrics.DATABASE_COUNT.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        int count = (int) DatabaseUtils.queryNumEntries(contactDatabase, DATABASE_NAME, LIVE_SELECTION);
+        Metrics.DATABASE_COUNT.stop(start);
+        return count;
+    }
+
+    // Retrieve a fixed-size window of contacts ordered by name
+    public ArrayList<Contact> getContactsPage(int offset, int limit) {
+        return getContactsPage(SortOrder.NAME, offset, limit);
+    }
+
+    // Retrieve a fixed-size window of contacts in a sort order
+    // SQLite still steps over every row before the offset, so deep pages get slower, see getContactsPageAfter
+    public ArrayList<Contact> getContactsPage(SortOrder sortOrder, int offset, int limit) {
+        long start = Metrics.DATABASE_LOAD_PAGE.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        ArrayList<Contact> page;
+        try (Cursor results = contactDatabase.query(
+                DATABASE_NAME, CONTACT_COLUMNS, LIVE_SELECTION, null, null, null, sortOrder.orderBy(false), offset + "," + limit)) {
+            page = new ContactRow(results).readAll();
+        }
+        Metrics.DATABASE_LOAD_PAGE.stop(start);
+        return page;
+    }
+
+    // Retrieve the contacts straight after a contact in a sort order
+    // The index is searched from the contact's key, so the cost does not grow with how deep the contact is
+    // Null when the contact no longer exists
+    public ArrayList<Contact> getContactsPageAfter(SortOrder sortOrder, int contactId, int limit) {
+        return seekContactsPage(sortOrder, contactId, limit, true);
+    }
+
+    // Retrieve the contacts straight before a contact in a sort order, in list order
+    // Null when the contact no longer exists
+    public ArrayList<Contact> getContactsPageBefore(SortOrder sortOrder, int contactId, int limit) {
+        return seekContactsPage(sortOrder, contactId, limit, false);
+    }
+
+    private ArrayList<Contact> seekContactsPage(SortOrder sortOrder, int contactId, int limit, boolean after) {
+        long start = Metrics.DATABASE_SEEK_PAGE.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        String[] sortKey = getSortKey(contactDatabase, sortOrder, contactId);
+        if (sortKey == null) {
+            return null;
+        }
+        String contactIdArg = String.valueOf(contactId);
+        String comparison = sortOrder.comparison(after);
+        ArrayList<Contact> page;
+        if (sortKey[0] == null) {
+            // Contacts without a key come first in ID order, the keyed contacts follow them
+            page = queryContacts(contactDatabase, String.format("%s IS NULL AND %s %s ?", sortOrder.column, ID_COLUMN, comparison),
+                    new String[]{contactIdArg}, ID_COLUMN + (after ? "" : " DESC"), limit);
+            if (after && page.size() < limit) {
+                page.addAll(queryContacts(contactDatabase, sortOrder.column + " IS NOT NULL", null,
+                        sortOrder.orderBy(false), limit - page.size()));
+            }
+        } else {
+            // Written as a range plus a filter so SQLite seeks the index to the key instead of scanning it
+            page = queryContacts(contactDatabase, String.format("%1$s %2$s= ? AND (%1$s %2$s ? OR %3$s %2$s ?)",
+                    sortOrder.key, comparison, ID_COLUMN), new String[]{sortKey[0], sortKey[0], contactIdArg},
+                    sortOrder.orderBy(!after), limit);
+            if (!after && sortOrder.hasMissingKeys() && page.size() < limit) {
+                page.addAll(queryContacts(contactDatabase, sortOrder.column + " IS NULL", null,
+                        ID_COLUMN + " DESC", limit - page.size()));
+            }
+        }
+        // Rows before the contact were read walking backwards
+        if (!after) {
+            Collections.reverse(page);
+        }
+        Metrics.DATABASE_SEEK_PAGE.stop(start);
+        return page;
+    }
+
+    private static ArrayList<Contact> queryContacts(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                                    String orderBy, int limit) {
+        try (Cursor results = db.query(DATABASE_NAME, CONTACT_COLUMNS, live(selection), selectionArgs,
+                null, null, orderBy, String.valueOf(limit))) {
+            return new ContactRow(results).readAll();
+        }
+    }
+
+    // Search contacts through the full-text index
+    // Every word of the keyword must prefix a word of the name, email or date of birth
+    // Contacts whose name starts with the keyword are ranked first, then by name
+    public ArrayList<Contact> searchContacts(String keyword) {
+        long start = Metrics.DATABASE_SEARCH.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        String matchQuery = buildMatchQuery(keyword);
+        if (matchQuery.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String query = String.format(
+                "SELECT c.%1$s, c.%2$s, c.%3$s, c.%4$s, c.%5$s, c.%9$s FROM %6$s " +
+                        "JOIN %7$s c ON c.%1$s = %6$s.docid " +
+                        "WHERE %6$s MATCH ? AND c.%10$s IS NULL " +
+                        "ORDER BY CASE WHEN c.%3$s LIKE ? THEN 0 WHEN c.%3$s LIKE ? THEN 1 ELSE 2 END, c.%3$s COLLATE NOCASE, c.%1$s " +
+                        "LIMIT %8$d",
+                ID_COLUMN, AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN,
+                SEARCH_TABLE, DATABASE_NAME, SEARCH_RESULT_LIMIT, PHOTO_COLUMN, DELETED_COLUMN);
+        String trimmedKeyword = keyword.trim();
+        ArrayList<Contact> matches;
+        try (Cursor results = contactDatabase.rawQuery(query, new String[]{
+                matchQuery, trimmedKeyword + "%", "% " + trimmedKeyword + "%"})) {
+            matches = new ContactRow(results).readAll();
+        }
+        Metrics.DATABASE_SEARCH.stop(start);
+        return matches;
+    }
+
+    // Contacts born from one day to another inclusive, oldest first, as a range scan of the date of birth index
+    public ArrayList<Contact> getContactsBornBetween(long fromEpochDay, long toEpochDay) {
+        long start = Metrics.DATABASE_DATE_OF_BIRTH.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        ArrayList<Contact> contacts;
+        try (Cursor results = contactDatabase.query(
+                DATABASE_NAME, CONTACT_COLUMNS, live(DOB_EPOCH_DAY_COLUMN + " BETWEEN ? AND ?"),
+                new String[]{String.valueOf(fromEpochDay), String.valueOf(toEpochDay)},
+                null, null, DOB_EPOCH_DAY_COLUMN + ", " + ID_COLUMN)) {
+            contacts = new ContactRow(results).readAll();
+        }
+        Metrics.DATABASE_DATE_OF_BIRTH.stop(start);
+        return contacts;
+    }
+
+    // Contacts whose birthday falls from today to the given number of days ahead, soonest first
+    // The window is one range of the birthday index, or two when it runs past the end of the year
+    public ArrayList<Contact> getUpcomingBirthdays(long todayEpochDay, int days) {
+        long start = Metrics.DATABASE_DATE_OF_BIRTH.start();
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        int firstMonthDay = DateOfBirth.toMonthDay(todayEpochDay);
+        int lastMonthDay = DateOfBirth.toMonthDay(todayEpochDay + days);
+
+        String selection;
+        String[] selectionArgs;
+        if (days >= 365) {
+            selection = BIRTHDAY_COLUMN + " IS NOT NULL";
+            selectionArgs = null;
+        } else if (firstMonthDay <= lastMonthDay) {
+            selection = BIRTHDAY_COLUMN + " BETWEEN ? AND ?";
+            selectionArgs = new String[]{String.valueOf(firstMonthDay), String.valueOf(lastMonthDay)};
+        } else {
+            selection = BIRTHDAY_COLUMN + " >= ? OR " + BIRTHDAY_COLUMN + " <= ?";
+            selectionArgs = new String[]{String.valueOf(firstMonthDay), String.valueOf(lastMonthDay)};
+        }
+        // Birthdays still to come this year, then the ones early next year
+        String order = String.format("%1$s < %2$d, %1$s, %3$s", BIRTHDAY_COLUMN, firstMonthDay, NAME_ORDER);
+
+        ArrayList<Contact> contacts;
+        try (Cursor results = contactDatabase.query(
+                DATABASE_NAME, CONTACT_COLUMNS, live(selection), selectionArgs, null, null, order)) {
+            contacts = new ContactRow(results).readAll();
+        }
+        Metrics.DATABASE_DATE_OF_BIRTH.stop(start);
+        return contacts;
+    }
+
+    // Turn free text into a prefix query, e.g. "john do" becomes "john* do*"
+    // Words are split the same way the default full-text tokenizer splits them
+    private static String buildMatchQuery(String keyword) {
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : keyword.toLowerCase().split("[^a-z0-9\\u0080-\\uffff]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(word).append('*');
+        }
+        return matchQuery.toString();
+    }
+
+    // Open a forward-only cursor over every contact in insertion order
+    // Rows are read in cursor window sized chunks so the caller never holds the whole table
+    // Only the exported columns are read, through a ContactRow, the caller closes the cursor
+    public Cursor openContactsCursor() {
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        return contactDatabase.query(
                 DATABASE_NAME,
-                new String[]{ID_COLUMN, AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN},
-                null, null, null, null, "name"
+                new String[]{AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN},
+                LIVE_SELECTION, null, null, null, ID_COLUMN
         );
+    }
 
-        // Return all contact details as a table
-        Contact[] contacts = new Contact[results.getCount()];
-        int contactIndex = 0;
-        while(results.moveToNext()){
-            contacts[contactIndex] =  new Contact(
-                    results.getInt(results.getColumnIndexOrThrow(ID_COLUMN)),
-                    results.getInt(results.getColumnIndexOrThrow(AVATAR_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(NAME_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(EMAIL_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(DOB_COLUMN))
-            );
-            // Append contact to the table
-            contactIndex++;
-        }
+    // Open a cursor over every contact's ID and name in list order, for ContactNameIndex
+    // Both columns are in the name index, so the rows come straight from it
+    public Cursor openNamesCursor() {
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        return contactDatabase.query(
+                DATABASE_NAME,
+                new String[]{ID_COLUMN, NAME_COLUMN},
+                LIVE_SELECTION, null, null, null, NAME_ORDER
+        );
+    }
 
-        // Closes the cursor to avoid memory leaks
-        results.close();
+    // Open a cursor over every contact's ID, name and email, for FuzzyContactIndex
+    public Cursor openSearchTextCursor() {
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        return contactDatabase.query(
+                DATABASE_NAME,
+                new String[]{ID_COLUMN, NAME_COLUMN, EMAIL_COLUMN},
+                LIVE_SELECTION, null, null, null, null
+        );
+    }
 
-        // Return contacts as a table
-        return new ArrayList<>(java.util.Arrays.asList(contacts));
+    // Open a cursor over every contact's ID, name, email and date of birth in ID order, for ContactDeduplicator
+    public Cursor openDuplicateKeysCursor() {
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        return contactDatabase.query(
+                DATABASE_NAME,
+                new String[]{ID_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN},
+                LIVE_SELECTION, null, null, null, ID_COLUMN
+        );
+    }
+
+    // File names of every photo still used by a contact, including contacts in the trash so an undo gets them back
+    public HashSet<String> getPhotoNames() {
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        HashSet<String> photoNames = new HashSet<>();
+        try (Cursor results = contactDatabase.query(true, DATABASE_NAME, new String[]{PHOTO_COLUMN},
+                PHOTO_COLUMN + " IS NOT NULL", null, null, null, null, null)) {
+            while (results.moveToNext()) {
+                photoNames.add(results.getString(0));
+            }
+        }
+        return photoNames;
     }
 
     // Delete contact by ID
-    public void deleteContactById(int contactId) {
-        String whereClause = ID_COLUMN + " = ?";
-        String[] whereArgs = { String.valueOf(contactId) };
-        contactDatabase.delete(DATABASE_NAME, whereClause, whereArgs);
+    public Deletion deleteContactById(int contactId) {
+        return deleteContactsByIds(Collections.singletonList(contactId));
+    }
+
+    // Contacts moved to the trash by one delete, they can be restored together until they are purged
+    public static class Deletion {
+        public final long deletedAt;
+        public final int count;
+
+        Deletion(long deletedAt, int count) {
+            this.deletedAt = deletedAt;
+            this.count = count;
+        }
+    }
+
+    // Time a delete moves its contacts to the trash, never the same twice so each delete is undone on its own
+    private long newDeletedAt() {
+        return lastDeletedAt.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    // Move many contacts to the trash in one transaction using chunked IN (...) statements
+    // Only the deleted column is written, the rows, their photos and the search index stay until the purge
+    public Deletion deleteContactsByIds(Collection<Integer> contactIds) {
+        long start = Metrics.DATABASE_DELETE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        long deletedAt = newDeletedAt();
+        ContentValues rowValues = new ContentValues();
+        rowValues.put(DELETED_COLUMN, deletedAt);
+        int deletedCount = 0;
+        List<ContactChanges.Change> changes = new ArrayList<>(contactIds.size());
+        Iterator<Integer> remainingIds = contactIds.iterator();
+        SortOrder sortOrder = listSortOrder;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            // Positions are looked up before anything is deleted, highest first so they stay valid when applied in turn
+            boolean lookUpPositions = contactIds.size() <= POSITIONED_DELETE_LIMIT;
+            for (int contactId : contactIds) {
+                int position = ContactChanges.NO_POSITION;
+                if (lookUpPositions) {
+                    position = getPosition(contactDatabase, sortOrder, contactId);
+                    if (position == ContactChanges.NO_POSITION) {
+                        continue;
+                    }
+                }
+                changes.add(new ContactChanges.Change(
+                        ContactChanges.Type.DELETED, contactId, null, position, ContactChanges.NO_POSITION));
+            }
+            Collections.sort(changes, (first, second) -> Integer.compare(second.oldPosition, first.oldPosition));
+
+            while (remainingIds.hasNext()) {
+                ArrayList<Integer> chunk = new ArrayList<>(DELETE_CHUNK_SIZE);
+                while (remainingIds.hasNext() && chunk.size() < DELETE_CHUNK_SIZE) {
+                    chunk.add(remainingIds.next());
+                }
+                deletedCount += contactDatabase.update(DATABASE_NAME, rowValues,
+                        live(idInClause(chunk.size())), toArgs(chunk));
+            }
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        if (deletedCount > 0) {
+            publishChanges(new ContactChanges(version, false, sortOrder, changes));
+        }
+        Metrics.DATABASE_DELETE.stop(start);
+        return new Deletion(deletedAt, deletedCount);
+    }
+
+    // Move every contact except the given IDs to the trash in one transaction
+    // The kept IDs go through a temporary table so there is no limit on how many are kept
+    public Deletion deleteAllContactsExcept(Collection<Integer> keptContactIds) {
+        long start = Metrics.DATABASE_DELETE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        long deletedAt = newDeletedAt();
+        ContentValues rowValues = new ContentValues();
+        rowValues.put(DELETED_COLUMN, deletedAt);
+        int deletedCount;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            if (keptContactIds.isEmpty()) {
+                deletedCount = contactDatabase.update(DATABASE_NAME, rowValues, LIVE_SELECTION, null);
+            } else {
+                contactDatabase.execSQL("CREATE TEMP TABLE IF NOT EXISTS kept_contact_ids (id INTEGER PRIMARY KEY)");
+                contactDatabase.execSQL("DELETE FROM kept_contact_ids");
+                SQLiteStatement insertKeptId = contactDatabase.compileStatement("INSERT OR IGNORE INTO kept_contact_ids (id) VALUES (?)");
+                for (int contactId : keptContactIds) {
+                    insertKeptId.bindLong(1, contactId);
+                    insertKeptId.executeInsert();
+                }
+                insertKeptId.close();
+
+                deletedCount = contactDatabase.update(DATABASE_NAME, rowValues,
+                        live(ID_COLUMN + " NOT IN (SELECT id FROM kept_contact_ids)"), null);
+                contactDatabase.execSQL("DELETE FROM kept_contact_ids");
+            }
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        // Too many rows to list, listeners are told to reload
+        if (deletedCount > 0) {
+            publishChanges(ContactChanges.reset(version));
+        }
+        Metrics.DATABASE_DELETE.stop(start);
+        return new Deletion(deletedAt, deletedCount);
+    }
+
+    // Take the contacts of one delete back out of the trash in one transaction, returns how many came back
+    // Small restores are published as inserts with positions, lowest first so they stay valid when applied in turn
+    public int restoreContacts(long deletedAt) {
+        long start = Metrics.DATABASE_RESTORE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        String[] deletedAtArgs = {String.valueOf(deletedAt)};
+        ContentValues rowValues = new ContentValues();
+        rowValues.putNull(DELETED_COLUMN);
+        List<ContactChanges.Change> changes = new ArrayList<>();
+        SortOrder sortOrder = listSortOrder;
+        int restoredCount;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            List<Integer> restoredIds = new ArrayList<>();
+            try (Cursor results = contactDatabase.query(DATABASE_NAME, new String[]{ID_COLUMN}, DELETED_COLUMN + " = ?",
+                    deletedAtArgs, null, null, null, String.valueOf(POSITIONED_DELETE_LIMIT + 1))) {
+                while (results.moveToNext()) {
+                    restoredIds.add(results.getInt(0));
+                }
+            }
+            restoredCount = contactDatabase.update(DATABASE_NAME, rowValues, DELETED_COLUMN + " = ?", deletedAtArgs);
+
+            if (restoredIds.size() <= POSITIONED_DELETE_LIMIT) {
+                for (Contact contact : getContactsByIds(restoredIds)) {
+                    changes.add(new ContactChanges.Change(ContactChanges.Type.INSERTED, contact.getId(), contact,
+                            ContactChanges.NO_POSITION, getPosition(contactDatabase, sortOrder, contact.getId())));
+                }
+                Collections.sort(changes, (first, second) -> Integer.compare(first.newPosition, second.newPosition));
+            }
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        if (restoredCount > 0) {
+            publishChanges(changes.size() == restoredCount
+                    ? new ContactChanges(version, false, sortOrder, changes) : ContactChanges.reset(version));
+        }
+        Metrics.DATABASE_RESTORE.stop(start);
+        return restoredCount;
+    }
+
+    // Remove up to a batch of contacts moved to the trash before the given time for good, returns how many
+    // The rows were already hidden from every read, so nothing is published and no data version is taken
+    public int purgeDeletedContacts(long deletedBefore, int batchSize) {
+        long start = Metrics.DATABASE_PURGE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        int purgedCount = contactDatabase.delete(DATABASE_NAME, String.format(
+                "%1$s IN (SELECT %1$s FROM %2$s WHERE %3$s < ? LIMIT %4$d)", ID_COLUMN, DATABASE_NAME, DELETED_COLUMN, batchSize),
+                new String[]{String.valueOf(deletedBefore)});
+        Metrics.DATABASE_PURGE.stop(start);
+        return purgedCount;
+    }
+
+    // Android writes its metadata table before onConfigure runs, so even a new database starts without auto vacuum
+    // The mode is kept in the database file, so once enabled it stays enabled across launches
+    public boolean isIncrementalVacuumEnabled() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    // Rewrite the whole file once so freed pages can be given back through compact, the writer waits until it is done
+    // VACUUM cannot run inside a transaction, so this is not part of an upgrade, IncrementalVacuumJobService runs it when idle
+    public void enableIncrementalVacuum() {
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        contactDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        contactDatabase.execSQL("VACUUM");
+    }
+
+    // Give up to the given number of free pages back to the file system, returns how many free pages are left
+    // Until incremental auto vacuum is enabled no page can be given back, so nothing is left to do
+    public int compact(int maxPages) {
+        if (!isIncrementalVacuumEnabled()) {
+            return 0;
+        }
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        // Every step of the pragma frees one page, reading the cursor through runs all of them
+        try (Cursor results = contactDatabase.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null)) {
+            results.getCount();
+        }
+        return (int) DatabaseUtils.longForQuery(contactDatabase, "PRAGMA freelist_count", null);
     }
 
     // Get contact by ID
     public Contact getContactById(int contactId) {
-        String selection = ID_COLUMN + " = ?";
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        String selection = live(ID_COLUMN + " = ?");
         String[] selectionArgs = {String.valueOf(contactId)};
-        Cursor results = contactDatabase.query(
-                DATABASE_NAME,
-                new String[]{ID_COLUMN, AVATAR_COLUMN, NAME_COLUMN, EMAIL_COLUMN, DOB_COLUMN},
-                selection, selectionArgs, null, null, null
-        );
-        Contact contact = null;
-        if (results.moveToFirst()) {
-            contact = new Contact(
-                    results.getInt(results.getColumnIndexOrThrow(ID_COLUMN)),
-                    results.getInt(results.getColumnIndexOrThrow(AVATAR_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(NAME_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(EMAIL_COLUMN)),
-                    results.getString(results.getColumnIndexOrThrow(DOB_COLUMN))
-            );
-            Log.d("DatabaseHelper", "Retrieved Contact by ID: " + contact.getName());
+        try (Cursor results = contactDatabase.query(
+                DATABASE_NAME, CONTACT_COLUMNS, selection, selectionArgs, null, null, null)) {
+            return results.moveToFirst() ? new ContactRow(results).toContact() : null;
+        }
+    }
+
+    // Get contacts by ID in the order the IDs are given, IDs that no longer exist are skipped
+    // IDs are looked up in chunks so any number can be asked for
+    public ArrayList<Contact> getContactsByIds(List<Integer> contactIds) {
+        ArrayList<Contact> contacts = new ArrayList<>(contactIds.size());
+        if (contactIds.isEmpty()) {
+            return contacts;
+        }
+        SQLiteDatabase contactDatabase = getReadableDatabase();
+        HashMap<Integer, Contact> contactsById = new HashMap<>();
+        for (int chunkStart = 0; chunkStart < contactIds.size(); chunkStart += DELETE_CHUNK_SIZE) {
+            List<Integer> chunk = contactIds.subList(chunkStart, Math.min(contactIds.size(), chunkStart + DELETE_CHUNK_SIZE));
+            try (Cursor results = contactDatabase.query(
+                    DATABASE_NAME, CONTACT_COLUMNS, live(idInClause(chunk.size())), toArgs(chunk), null, null, null)) {
+                for (Contact contact : new ContactRow(results).readAll()) {
+                    contactsById.put(contact.getId(), contact);
+                }
+            }
+        }
+        for (int contactId : contactIds) {
+            Contact contact = contactsById.get(contactId);
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+        return contacts;
+    }
+
+    // Merge each group of contact IDs into the group's first contact, all in one transaction
+    // The kept contact takes the oldest photo of the others when it has none, the others go to the trash together
+    // so the merge is undone with restoreContacts like a delete, the kept contact keeps a photo it took
+    // A group whose kept contact no longer exists is skipped, so a merge never loses every copy
+    public Deletion mergeContacts(List<List<Integer>> groups) {
+        long start = Metrics.DATABASE_MERGE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
+        long deletedAt = newDeletedAt();
+        ContentValues rowValues = new ContentValues();
+        rowValues.put(DELETED_COLUMN, deletedAt);
+        int mergedCount = 0;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            for (List<Integer> group : groups) {
+                if (group.size() < 2 || getContactName(contactDatabase, group.get(0)) == null) {
+                    continue;
+                }
+                String[] keptArgs = {String.valueOf(group.get(0))};
+                List<Integer> mergedIds = group.subList(1, group.size());
+                for (int chunkStart = 0; chunkStart < mergedIds.size(); chunkStart += DELETE_CHUNK_SIZE) {
+                    List<Integer> chunk = mergedIds.subList(chunkStart, Math.min(mergedIds.size(), chunkStart + DELETE_CHUNK_SIZE));
+                    String[] chunkArgs = toArgs(chunk);
+                    // The kept contact is only modified when there is a photo to take
+                    try (Cursor results = contactDatabase.query(DATABASE_NAME, new String[]{PHOTO_COLUMN},
+                            live(idInClause(chunk.size()) + " AND " + PHOTO_COLUMN + " IS NOT NULL"), chunkArgs,
+                            null, null, ID_COLUMN, "1")) {
+                        if (results.moveToFirst()) {
+                            ContentValues photoValues = new ContentValues();
+                            photoValues.put(PHOTO_COLUMN, results.getString(0));
+                            photoValues.put(MODIFIED_COLUMN, System.currentTimeMillis());
+                            contactDatabase.update(DATABASE_NAME, photoValues,
+                                    ID_COLUMN + " = ? AND " + PHOTO_COLUMN + " IS NULL", keptArgs);
+                        }
+                    }
+                    mergedCount += contactDatabase.update(DATABASE_NAME, rowValues, live(idInClause(chunk.size())), chunkArgs);
+                }
+            }
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        // Rows are removed all over the list, listeners are told to reload
+        if (mergedCount > 0) {
+            publishChanges(ContactChanges.reset(version));
+        }
+        Metrics.DATABASE_MERGE.stop(start);
+        return new Deletion(deletedAt, mergedCount);
+    }
+
+    // "id IN (?,?,...)" with one placeholder per ID
+    private static String idInClause(int idCount) {
+        StringBuilder clause = new StringBuilder(ID_COLUMN).append(" IN (");
+        for (int i = 0; i < idCount; i++) {
+            clause.append(i == 0 ? "?" : ",?");
+        }
+        return clause.append(')').toString();
+    }
+
+    private static String[] toArgs(List<Integer> contactIds) {
+        String[] args = new String[contactIds.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(contactIds.get(i));
+        }
+        return args;
+    }
+
+    // Read only the name of a contact, e.g. to check it exists, or null if it does not exist
+    private String getContactName(SQLiteDatabase db, int contactId) {
+        try (Cursor results = db.query(DATABASE_NAME, new String[]{NAME_COLUMN},
+                live(ID_COLUMN + " = ?"), new String[]{String.valueOf(contactId)}, null, null, null)) {
+            return results.moveToFirst() ? results.getString(0) : null;
         }
-        results.close();
-        return contact;
     }
 
     // Update contact details
-    public boolean updateContactDetails(int contactId, int avatarId, String name, String email, String dateOfBirth) {
+    public boolean updateContactDetails(int contactId, int avatarId, String name, String email, String dateOfBirth, String photo) {
+        long start = Metrics.DATABASE_UPDATE.start();
+        SQLiteDatabase contactDatabase = getWritableDatabase();
         ContentValues rowValues = new ContentValues();
         rowValues.put(AVATAR_COLUMN, avatarId);
         rowValues.put(NAME_COLUMN, name);
         rowValues.put(EMAIL_COLUMN, email);
-        rowValues.put(DOB_COLUMN, dateOfBirth);
+        putDateOfBirth(rowValues, dateOfBirth);
+        rowValues.put(PHOTO_COLUMN, photo);
+        rowValues.put(MODIFIED_COLUMN, System.currentTimeMillis());
 
         String whereClause = ID_COLUMN + " = ?";
         String[] whereArgs = { String.valueOf(contactId) };
 
-        int rowsAffected = contactDatabase.update(DATABASE_NAME, rowValues, whereClause, whereArgs);
+        int rowsAffected = 0;
+        int oldPosition = ContactChanges.NO_POSITION;
+        int newPosition = ContactChanges.NO_POSITION;
+        SortOrder sortOrder = listSortOrder;
+        long version;
+        contactDatabase.beginTransaction();
+        try {
+            oldPosition = getPosition(contactDatabase, sortOrder, contactId);
+            if (oldPosition != ContactChanges.NO_POSITION) {
+                rowsAffected = contactDatabase.update(DATABASE_NAME, rowValues, whereClause, whereArgs);
+                newPosition = getPosition(contactDatabase, sortOrder, contactId);
+            }
+            contactDatabase.setTransactionSuccessful();
+        } finally {
+            version = endTransaction(contactDatabase);
+        }
+
+        if (rowsAffected > 0) {
+            Contact contact = new Contact(contactId, avatarId, name, email, dateOfBirth, photo);
+            publishChanges(new ContactChanges(version, false, sortOrder, Collections.singletonList(new ContactChanges.Change(
+                    ContactChanges.Type.UPDATED, contactId, contact, oldPosition, newPosition))));
+        }
+        Metrics.DATABASE_UPDATE.stop(start);
         return rowsAffected > 0;
     }
-}
 
+    // Reads contacts from a cursor, column indices are looked up once per query instead of once per field
+    // Also works as a flyweight over the current row, fields are only read when asked for
+    // so streaming readers such as the exporter never build a Contact, columns not in the query read as null or 0
+    public static class ContactRow {
+        private final Cursor cursor;
+        private final int idIndex;
+        private final int avatarIndex;
+        private final int nameIndex;
+        private final int emailIndex;
+        private final int dobIndex;
+        private final int photoIndex;
+
+        public ContactRow(Cursor cursor) {
+            this.cursor = cursor;
+            idIndex = cursor.getColumnIndex(ID_COLUMN);
+            avatarIndex = cursor.getColumnIndex(AVATAR_COLUMN);
+            nameIndex = cursor.getColumnIndex(NAME_COLUMN);
+            emailIndex = cursor.getColumnIndex(EMAIL_COLUMN);
+            dobIndex = cursor.getColumnIndex(DOB_COLUMN);
+            photoIndex = cursor.getColumnIndex(PHOTO_COLUMN);
+        }
+
+        public int getId() {
+            return idIndex < 0 ? 0 : cursor.getInt(idIndex);
+        }
+
+        public int getAvatarId() {
+            return avatarIndex < 0 ? 0 : cursor.getInt(avatarIndex);
+        }
+
+        public String getName() {
+            return nameIndex < 0 ? null : cursor.getString(nameIndex);
+        }
+
+        public String getEmail() {
+            return emailIndex < 0 ? null : cursor.getString(emailIndex);
+        }
+
+        public String getDateOfBirth() {
+            return dobIndex < 0 ? null : cursor.getString(dobIndex);
+        }
 
+        public String getPhoto() {
+            return photoIndex < 0 ? null : cursor.getString(photoIndex);
+        }
+
+        // Build a Contact from the current row
+        public Contact toContact() {
+            return new Contact(getId(), getAvatarId(), getName(), getEmail(), getDateOfBirth(), getPhoto());
+        }
+
+        // Build a Contact from every remaining row into a list sized for them up front
+        public ArrayList<Contact> readAll() {
+            ArrayList<Contact> contacts = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                contacts.add(toContact());
+            }
+            return contacts;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.contactdatabase;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+// Converts dates of birth between the d/M/yyyy text shown on screen and sortable epoch days
+public class DateOfBirth {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private DateOfBirth() {
+    }
+
+    // Parse d/M/yyyy into days since 1970-01-01, or null if the text is not a valid date
+    public static Long parseEpochDay(String dateOfBirth) {
+        if (dateOfBirth == null) {
+            return null;
+        }
+        String[] parts = dateOfBirth.trim().split("/");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            int day = Integer.parseInt(parts[0].trim());
+            int month = Integer.parseInt(parts[1].trim());
+            int year = Integer.parseInt(parts[2].trim());
+            return toEpochDay(year, month, day);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Days since 1970-01-01 for a calendar date, or null if the date does not exist
+    public static Long toEpochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1) {
+            return null;
+        }
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        calendar.clear();
+        calendar.set(year, month - 1, 1);
+        if (day > calendar.getActualMaximum(Calendar.DAY_OF_MONTH)) {
+            return null;
+        }
+        calendar.set(Calendar.DAY_OF_MONTH, day);
+        return Math.floorDiv(calendar.getTimeInMillis(), MILLIS_PER_DAY);
+    }
+
+    // Month and day of an epoch day as one number, e.g. 5 March is 305, so birthdays compare by time of year
+    public static int toMonthDay(long epochDay) {
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        calendar.clear();
+        calendar.setTimeInMillis(epochDay * MILLIS_PER_DAY);
+        return (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    // Today's date on this device as days since 1970-01-01
+    public static long today() {
+        Calendar now = Calendar.getInstance();
+        return toEpochDay(now.get(Calendar.YEAR), now.get(Calendar.MONTH) + 1, now.get(Calendar.DAY_OF_MONTH));
+    }
+
+    // Format days since 1970-01-01 as d/M/yyyy
+    public static String format(long epochDay) {
+        GregorianCalendar calendar = new GregorianCalendar(UTC);
+        calendar.clear();
+        calendar.setTimeInMillis(epochDay * MILLIS_PER_DAY);
+        return calendar.get(Calendar.DAY_OF_MONTH) + "/" + (calendar.get(Calendar.MONTH) + 1) + "/" + calendar.get(Calendar.YEAR);
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.contactdatabase;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+// Typo-tolerant lookup over the words of every contact's name and email, e.g. "jonh" finds "John"
+// Words are runs of letters, numbers such as the digits in an email are left to the exact full-text search
+// Distinct words are indexed by their trigrams, so a query word is only compared with words sharing some of them
+// Candidates are then ranked by edit distance, computed in a band that gives up once it passes the allowed typos
+// Built on a read thread without blocking writes, then kept up to date from committed changes on the write thread
+public class FuzzyContactIndex {
+    public static final int RESULT_LIMIT = 50;
+    // Words shorter than this only match exactly
+    private static final int MIN_FUZZY_LENGTH = 3;
+    // Words this long allow a second typo
+    private static final int TWO_TYPO_LENGTH = 6;
+    private static final int MAX_TYPOS = 2;
+    // Highest cost of one matched word, see matchWord
+    private static final int MAX_COST = 2 * MAX_TYPOS + 1;
+
+    private static final int NOT_BUILT = 0;
+    private static final int BUILDING = 1;
+    private static final int READY = 2;
+
+    private int state = NOT_BUILT;
+    private Words words;
+    // Changes committed while a build reads the table, replayed onto it once it finishes
+    private final ArrayList<ContactChanges> changesDuringBuild = new ArrayList<>();
+    private boolean resetDuringBuild;
+
+    public synchronized boolean isReady() {
+        return state == READY;
+    }
+
+    synchronized boolean needsBuild() {
+        return state == NOT_BUILT;
+    }
+
+    // Index every contact, called on a read thread
+    // Replaying a change onto a build that already saw it gives the same result, so nothing is missed or doubled
+    void build(DatabaseHelper databaseHelper) {
+        synchronized (this) {
+            if (state != NOT_BUILT) {
+                return;
+            }
+            state = BUILDING;
+        }
+        while (true) {
+            Words newWords = new Words();
+            try (Cursor results = databaseHelper.openSearchTextCursor()) {
+                while (results.moveToNext()) {
+                    newWords.addContact(results.getInt(0), results.getString(1), results.getString(2));
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    state = NOT_BUILT;
+                    changesDuringBuild.clear();
+                    resetDuringBuild = false;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                if (resetDuringBuild) {
+                    // Too much changed to replay, read the table again
+                    resetDuringBuild = false;
+                    changesDuringBuild.clear();
+                    continue;
+                }
+                for (ContactChanges changes : changesDuringBuild) {
+                    newWords.apply(changes);
+                }
+                changesDuringBuild.clear();
+                words = newWords;
+                state = READY;
+                return;
+            }
+        }
+    }
+
+    // Apply a committed write, called on the write thread
+    // A reset drops the index, the next search builds it again
+    synchronized void applyChanges(ContactChanges changes) {
+        if (state == BUILDING) {
+            if (changes.reset) {
+                resetDuringBuild = true;
+            } else {
+                changesDuringBuild.add(changes);
+            }
+        } else if (state == READY) {
+            if (changes.reset) {
+                words = null;
+                state = NOT_BUILT;
+            } else {
+                words.apply(changes);
+            }
+        }
+    }
+
+    // IDs of the contacts matching every query word within the allowed typos, fewest typos first
+    // The last word is matched as a prefix, since it is usually still being typed, whole words rank before longer ones
+    public synchronized List<Integer> search(String normalizedQuery, int limit) {
+        String[] queryWords = splitWords(normalizedQuery);
+        if (state != READY || queryWords.length == 0) {
+            return new ArrayList<>();
+        }
+        return words.search(queryWords, limit);
+    }
+
+    // Edit distance counting a swap of neighbouring letters as one typo, or maxTypos + 1 once it is exceeded
+    // With prefix set, the distance to the closest start of the second string is returned instead
+    // Only cells within maxTypos of the diagonal can stay in bounds, so only those are filled
+    static int distance(String first, String second, int maxTypos, boolean prefix) {
+        int outOfBounds = maxTypos + 1;
+        int firstLength = first.length();
+        int secondLength = prefix ? Math.min(second.length(), firstLength + maxTypos) : second.length();
+        if (firstLength - secondLength > maxTypos || (!prefix && secondLength - firstLength > maxTypos)) {
+            return outOfBounds;
+        }
+
+        // Three rows are kept, the one two back is needed for swapped letters
+        int[] twoRowsBack = new int[secondLength + 1];
+        int[] previousRow = new int[secondLength + 1];
+        int[] row = new int[secondLength + 1];
+        for (int j = 0; j <= secondLength; j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= firstLength; i++) {
+            int[] reused = twoRowsBack;
+            twoRowsBack = previousRow;
+            previousRow = row;
+            row = reused;
+
+            int from = Math.max(1, i - maxTypos);
+            int to = Math.min(secondLength, i + maxTypos);
+            row[0] = i;
+            if (from > 1) {
+                row[from - 1] = outOfBounds;
+            }
+            int rowMinimum = from > 1 ? outOfBounds : i;
+            for (int j = from; j <= to; j++) {
+                int cost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(row[j - 1] + 1, previousRow[j] + 1), previousRow[j - 1] + cost);
+                if (i > 1 && j > 1 && first.charAt(i - 1) == second.charAt(j - 2)
+                        && first.charAt(i - 2) == second.charAt(j - 1)) {
+                    value = Math.min(value, twoRowsBack[j - 2] + 1);
+                }
+                row[j] = Math.min(value, outOfBounds);
+                rowMinimum = Math.min(rowMinimum, row[j]);
+            }
+            if (to < secondLength) {
+                row[to + 1] = outOfBounds;
+            }
+            // Every later row only grows from here
+            if (rowMinimum > maxTypos) {
+                return outOfBounds;
+            }
+        }
+        if (!prefix) {
+            return Math.min(row[secondLength], outOfBounds);
+        }
+        // The last row holds the distance to every start of the second string within the band
+        int best = outOfBounds;
+        for (int j = Math.max(1, firstLength - maxTypos); j <= secondLength; j++) {
+            best = Math.min(best, row[j]);
+        }
+        return best;
+    }
+
+    // Trigrams of a word padded with two leading spaces, and one trailing space unless it is a prefix
+    private static List<String> trigrams(String word, boolean padEnd) {
+        String padded = "  " + word + (padEnd ? " " : "");
+        ArrayList<String> trigrams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    // One bit per letter a to z, other letters share the remaining bits, so a word's mask covers every letter in it
+    static long letterMask(String word) {
+        long mask = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            mask |= 1L << (c >= 'a' && c <= 'z' ? c - 'a' : 26 + c % 38);
+        }
+        return mask;
+    }
+
+    // Letter runs only, so "smith12@example.com" gives smith, example and com
+    private static String[] splitWords(String text) {
+        List<String> splitWords = new ArrayList<>();
+        for (String word : text.toLowerCase().split("[^a-z\\u0080-\\uffff]+")) {
+            if (!word.isEmpty()) {
+                splitWords.add(word);
+            }
+        }
+        return splitWords.toArray(new String[0]);
+    }
+
+    // The index itself, only touched while holding the lock once it has been built
+    static class Words {
+        // Distinct words, a word's position in the list is its word ID
+        private final HashMap<String, Integer> wordIds = new HashMap<>();
+        private final ArrayList<String> words = new ArrayList<>();
+        // Contact IDs per word ID
+        private final ArrayList<IntList> wordContacts = new ArrayList<>();
+        // Word IDs per trigram
+        private final HashMap<String, IntList> trigramWords = new HashMap<>();
+        // Letters in each word by word ID, see letterMask
+        private long[] wordLetters = new long[16];
+        // Words per contact ID, needed to remove a contact whose old text is gone
+        private final HashMap<Integer, ContactWords> contactWords = new HashMap<>();
+
+        // Reused between searches
+        private int[] sharedTrigrams = new int[0];
+        private final IntList touchedWords = new IntList();
+
+        // Words whose contacts are all gone stay in the vocabulary until the next build
+        void apply(ContactChanges changes) {
+            for (ContactChanges.Change change : changes.changes) {
+                removeContact(change.contactId);
+                if (change.contact != null) {
+                    addContact(change.contactId, change.contact.getName(), change.contact.getEmail());
+                }
+            }
+        }
+
+        void addContact(int contactId, String name, String email) {
+            IntList ids = new IntList();
+            IntList slots = new IntList();
+            for (String word : splitWords((name == null ? "" : name) + " " + (email == null ? "" : email))) {
+                int wordId = getOrAddWord(word);
+                if (!ids.contains(wordId)) {
+                    IntList contacts = wordContacts.get(wordId);
+                    ids.add(wordId);
+                    slots.add(contacts.size);
+                    contacts.add(contactId);
+                }
+            }
+            contactWords.put(contactId, new ContactWords(ids.toArray(), slots.toArray()));
+        }
+
+        // The last contact of each word's list moves into the freed slot, so a word shared by every contact, such as
+        // the "com" of an email, costs the same to remove a contact from as a rare one
+        private void removeContact(int contactId) {
+            ContactWords removed = contactWords.remove(contactId);
+            if (removed == null) {
+                return;
+            }
+            for (int i = 0; i < removed.wordIds.length; i++) {
+                IntList contacts = wordContacts.get(removed.wordIds[i]);
+                int slot = removed.slots[i];
+                int movedContactId = contacts.values[--contacts.size];
+                if (slot < contacts.size) {
+                    contacts.values[slot] = movedContactId;
+                    contactWords.get(movedContactId).moveSlot(removed.wordIds[i], slot);
+                }
+            }
+        }
+
+        private int getOrAddWord(String word) {
+            Integer wordId = wordIds.get(word);
+            if (wordId != null) {
+                return wordId;
+            }
+            int newWordId = words.size();
+            wordIds.put(word, newWordId);
+            words.add(word);
+            wordContacts.add(new IntList());
+            if (newWordId == wordLetters.length) {
+                wordLetters = Arrays.copyOf(wordLetters, newWordId * 2);
+            }
+            wordLetters[newWordId] = letterMask(word);
+            for (String trigram : trigrams(word, true)) {
+                IntList trigramList = trigramWords.get(trigram);
+                if (trigramList == null) {
+                    trigramList = new IntList();
+                    trigramWords.put(trigram, trigramList);
+                }
+                trigramList.add(newWordId);
+            }
+            return newWordId;
+        }
+
+        List<Integer> search(String[] queryWords, int limit) {
+            // Matching word IDs and their costs for each query word
+            ArrayList<HashMap<Integer, Integer>> wordMatches = new ArrayList<>(queryWords.length);
+            int rarestQueryWord = 0;
+            long fewestContacts = Long.MAX_VALUE;
+            for (int i = 0; i < queryWords.length; i++) {
+                HashMap<Integer, Integer> matches = matchWord(queryWords[i], i == queryWords.length - 1);
+                if (matches.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                long contactCount = 0;
+                for (int wordId : matches.keySet()) {
+                    contactCount += wordContacts.get(wordId).size;
+                }
+                if (contactCount < fewestContacts) {
+                    fewestContacts = contactCount;
+                    rarestQueryWord = i;
+                }
+                wordMatches.add(matches);
+            }
+
+            // Walk the contacts of the rarest query word and look the other query words up in their words
+            // Contacts are bucketed by total cost, no bucket needs more than the limit
+            IntList[] buckets = new IntList[MAX_COST * queryWords.length + 1];
+            for (Map.Entry<Integer, Integer> match : wordMatches.get(rarestQueryWord).entrySet()) {
+                IntList contacts = wordContacts.get(match.getKey());
+                for (int i = 0; i < contacts.size; i++) {
+                    int contactId = contacts.values[i];
+                    int cost = match.getValue() + otherWordCosts(contactId, wordMatches, rarestQueryWord);
+                    if (cost >= buckets.length) {
+                        continue;
+                    }
+                    if (buckets[cost] == null) {
+                        buckets[cost] = new IntList();
+                    }
+                    if (buckets[cost].size < limit) {
+                        buckets[cost].add(contactId);
+                    }
+                }
+            }
+
+            // A contact reached through two of its words is only listed once, at its lowest cost
+            ArrayList<Integer> contactIds = new ArrayList<>(limit);
+            HashSet<Integer> listed = new HashSet<>();
+            for (IntList bucket : buckets) {
+                for (int i = 0; bucket != null && i < bucket.size && contactIds.size() < limit; i++) {
+                    if (listed.add(bucket.values[i])) {
+                        contactIds.add(bucket.values[i]);
+                    }
+                }
+            }
+            return contactIds;
+        }
+
+        // Lowest cost for every query word but the skipped one, or more than any bucket when one has no match
+        private int otherWordCosts(int contactId, List<HashMap<Integer, Integer>> wordMatches, int skipped) {
+            if (wordMatches.size() == 1) {
+                return 0;
+            }
+            int[] ids = contactWords.get(contactId).wordIds;
+            int total = 0;
+            for (int queryWord = 0; queryWord < wordMatches.size(); queryWord++) {
+                if (queryWord == skipped) {
+                    continue;
+                }
+                HashMap<Integer, Integer> matches = wordMatches.get(queryWord);
+                int best = Integer.MAX_VALUE;
+                for (int wordId : ids) {
+                    Integer cost = matches.get(wordId);
+                    if (cost != null && cost < best) {
+                        best = cost;
+                    }
+                }
+                if (best == Integer.MAX_VALUE) {
+                    return Integer.MAX_VALUE / 2;
+                }
+                total += best;
+            }
+            return total;
+        }
+
+        // Word IDs within the allowed typos of the query word, with their costs
+        // A typo costs 2, finishing a longer word from a prefix costs 1
+        private HashMap<Integer, Integer> matchWord(String queryWord, boolean prefix) {
+            int maxTypos = queryWord.length() < MIN_FUZZY_LENGTH ? 0
+                    : queryWord.length() < TWO_TYPO_LENGTH ? 1 : MAX_TYPOS;
+            HashMap<Integer, Integer> matches = new HashMap<>();
+
+            // Each typo changes at most 4 trigrams, a swap of two letters included
+            // Once the typos could change every trigram the filter cannot rule a word out, so every word is compared
+            int trigramCount = queryWord.length() + (prefix ? 0 : 1);
+            int minShared = trigramCount - 4 * maxTypos;
+            touchedWords.clear();
+            if (minShared > 0) {
+                // Count the trigrams each word shares with the query word
+                if (sharedTrigrams.length < words.size()) {
+                    sharedTrigrams = new int[Math.max(words.size(), sharedTrigrams.length * 2)];
+                }
+                for (String trigram : trigrams(queryWord, !prefix)) {
+                    IntList trigramList = trigramWords.get(trigram);
+                    if (trigramList == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < trigramList.size; i++) {
+                        int wordId = trigramList.values[i];
+                        if (sharedTrigrams[wordId]++ == 0) {
+                            touchedWords.add(wordId);
+                        }
+                    }
+                }
+            } else {
+                // Each typo brings in at most one letter of the query the word lacks, so most words are still ruled out
+                long queryLetters = letterMask(queryWord);
+                for (int wordId = 0; wordId < words.size(); wordId++) {
+                    if (Long.bitCount(queryLetters & ~wordLetters[wordId]) <= maxTypos) {
+                        touchedWords.add(wordId);
+                    }
+                }
+            }
+
+            for (int i = 0; i < touchedWords.size; i++) {
+                int wordId = touchedWords.values[i];
+                if (minShared > 0) {
+                    int shared = sharedTrigrams[wordId];
+                    sharedTrigrams[wordId] = 0;
+                    if (shared < minShared) {
+                        continue;
+                    }
+                }
+                if (wordContacts.get(wordId).size == 0) {
+                    continue;
+                }
+                String word = words.get(wordId);
+                int typos = distance(queryWord, word, maxTypos, prefix);
+                if (typos <= maxTypos) {
+                    matches.put(wordId, 2 * typos + (word.length() > queryWord.length() ? 1 : 0));
+                }
+            }
+            return matches;
+        }
+    }
+
+    // A contact's distinct word IDs, and the contact's slot in each of those words' contact lists
+    private static class ContactWords {
+        final int[] wordIds;
+        final int[] slots;
+
+        ContactWords(int[] wordIds, int[] slots) {
+            this.wordIds = wordIds;
+            this.slots = slots;
+        }
+
+        void moveSlot(int wordId, int slot) {
+            for (int i = 0; i < wordIds.length; i++) {
+                if (wordIds[i] == wordId) {
+                    slots[i] = slot;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Growable list of ints, without boxing every contact ID
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        boolean contains(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
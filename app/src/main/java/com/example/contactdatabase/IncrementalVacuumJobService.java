@@ -0,0 +1,48 @@
+package com.example.contactdatabase;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+// Switches the database to incremental auto vacuum with one full VACUUM
+// The VACUUM rewrites the whole file on the write thread, so it only runs while the device is idle and charging
+public class IncrementalVacuumJobService extends JobService {
+    private static final int JOB_ID = 1;
+
+    // Schedule the rewrite unless it is already waiting, it is scheduled again after any purge until it has run
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null || jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, IncrementalVacuumJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        ContactRepository.getInstance(this).write(db -> {
+            if (!db.isIncrementalVacuumEnabled()) {
+                db.enableIncrementalVacuum();
+            }
+            return true;
+        }, enabled -> {
+            // A failed rewrite is retried at the next idle window
+            Log.d("IncrementalVacuumJobService", "Incremental vacuum enabled: " + (enabled != null));
+            jobFinished(params, enabled == null);
+        });
+        return true;
+    }
+
+    // A running VACUUM cannot be stopped, let it finish and run the job again only if it failed
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
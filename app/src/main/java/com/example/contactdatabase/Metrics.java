@@ -0,0 +1,131 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Process-wide timers around database queries, searches, adapter binds and list diffing
+// Turned off by default, a disabled timer costs one volatile read and records nothing
+// Startup timings are the exception, they are recorded on every launch
+// Percentiles are shown from the list screen menu and can be written to a file
+public class Metrics {
+    private static volatile boolean enabled;
+    private static final List<Timer> timers = Collections.synchronizedList(new ArrayList<>());
+
+    public static final Timer DATABASE_LOAD_ALL = new Timer("db.loadAll");
+    public static final Timer DATABASE_LOAD_PAGE = new Timer("db.loadPage");
+    public static final Timer DATABASE_SEEK_PAGE = new Timer("db.seekPage");
+    public static final Timer DATABASE_COUNT = new Timer("db.count");
+    public static final Timer DATABASE_SEARCH = new Timer("db.search");
+    public static final Timer DATABASE_INSERT = new Timer("db.insert");
+    public static final Timer DATABASE_UPDATE = new Timer("db.update");
+    public static final Timer DATABASE_DELETE = new Timer("db.delete");
+    public static final Timer DATABASE_MERGE = new Timer("db.merge");
+    public static final Timer DATABASE_RESTORE = new Timer("db.restore");
+    public static final Timer DATABASE_PURGE = new Timer("db.purge");
+    public static final Timer DATABASE_DATE_OF_BIRTH = new Timer("db.dateOfBirth");
+    public static final Timer SEARCH = new Timer("search.total");
+    public static final Timer SEARCH_REFINE = new Timer("search.refine");
+    public static final Timer SEARCH_FUZZY = new Timer("search.fuzzy");
+    public static final Timer SEARCH_NAME_PREFIX = new Timer("search.namePrefix");
+    public static final Timer ADAPTER_BIND = new Timer("adapter.bind");
+    public static final Timer LIST_DIFF = new Timer("adapter.diff");
+    // Recorded once per launch whether or not metrics are on, measured from the process starting
+    public static final Timer STARTUP_SNAPSHOT = new Timer("startup.snapshot");
+    public static final Timer STARTUP_FIRST_FRAME = new Timer("startup.frame");
+    public static final Timer STARTUP_DATABASE = new Timer("startup.database");
+
+    private Metrics() {
+    }
+
+    // Times one operation into its histogram
+    // Use as: long start = Metrics.X.start(); ... Metrics.X.stop(start);
+    public static class Timer {
+        public final String name;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        Timer(String name) {
+            this.name = name;
+            timers.add(this);
+        }
+
+        // Start time, or 0 when metrics are off
+        public long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        public void stop(long startNanos) {
+            if (startNanos != 0) {
+                histogram.record(System.nanoTime() - startNanos);
+            }
+        }
+
+        // Record a duration measured elsewhere, even while metrics are off
+        // For one-off timings such as startup, which happen before metrics can be turned on
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static void reset() {
+        synchronized (timers) {
+            for (Timer timer : timers) {
+                timer.histogram.reset();
+            }
+        }
+    }
+
+    // One line per timer that has recorded anything, durations in milliseconds
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%-15s %7s %8s %8s %8s %8s%n", "timer", "count", "p50", "p95", "p99", "max"));
+        synchronized (timers) {
+            for (Timer timer : timers) {
+                LatencyHistogram histogram = timer.histogram;
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                report.append(String.format(Locale.US, "%-15s %7d %8.2f %8.2f %8.2f %8.2f%n",
+                        timer.name,
+                        histogram.getCount(),
+                        toMillis(histogram.getPercentileNanos(0.50)),
+                        toMillis(histogram.getPercentileNanos(0.95)),
+                        toMillis(histogram.getPercentileNanos(0.99)),
+                        toMillis(histogram.getMaxNanos())));
+            }
+        }
+        return report.toString();
+    }
+
+    // Write the report to the app's files directory, e.g. to pull with adb after a test run
+    public static File dump(Context context) throws IOException {
+        File dumpFile = new File(context.getFilesDir(), "metrics.txt");
+        try (Writer writer = new FileWriter(dumpFile)) {
+            writer.write(report());
+        }
+        return dumpFile;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
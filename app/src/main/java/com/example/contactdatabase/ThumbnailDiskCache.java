@@ -0,0 +1,107 @@
+package com.example.contactdatabase;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Size-capped cache of pre-scaled thumbnails in the app's cache directory
+// Reading a thumbnail is far cheaper than decoding and scaling the full photo again
+// The least recently used thumbnails are deleted first once the cap is passed
+public class ThumbnailDiskCache {
+    private static final int JPEG_QUALITY = 85;
+
+    private final File directory;
+    private final long maxBytes;
+    // Total size of the cached files, read from disk on first use
+    private long totalBytes = -1;
+
+    public ThumbnailDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Get a cached thumbnail, or null on a miss
+    public synchronized Bitmap get(String key) {
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            // Unreadable, e.g. a write cut short, decode the photo again instead
+            remove(file);
+            return null;
+        }
+        // Modification time orders the files for eviction
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    public synchronized void put(String key, Bitmap bitmap) {
+        ensureSizeKnown();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        // Written under a temporary name so a half-written file is never read back
+        File file = new File(directory, key);
+        File partFile = new File(directory, key + ".part");
+        try (OutputStream output = new FileOutputStream(partFile)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        } catch (IOException e) {
+            Log.e("ThumbnailDiskCache", "Error writing thumbnail", e);
+            partFile.delete();
+            return;
+        }
+        remove(file);
+        if (partFile.renameTo(file)) {
+            totalBytes += file.length();
+            trimToSize();
+        } else {
+            partFile.delete();
+        }
+    }
+
+    private void remove(File file) {
+        long length = file.length();
+        if (file.delete() && totalBytes >= 0) {
+            totalBytes -= length;
+        }
+    }
+
+    private void ensureSizeKnown() {
+        if (totalBytes >= 0) {
+            return;
+        }
+        totalBytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                totalBytes += file.length();
+            }
+        }
+    }
+
+    // Delete the oldest thumbnails until the cache is back under its cap
+    private void trimToSize() {
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
+        for (File file : files) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            remove(file);
+        }
+    }
+}
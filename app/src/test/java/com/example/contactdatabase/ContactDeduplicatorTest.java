@@ -0,0 +1,41 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class ContactDeduplicatorTest {
+    @Test
+    public void namesDifferingInCaseSpacingOrPunctuationMatch() {
+        assertEquals("john smith", ContactDeduplicator.normalizeName("John  Smith"));
+        assertEquals("john smith", ContactDeduplicator.normalizeName(" john smith. "));
+        assertEquals("john smith", ContactDeduplicator.normalizeName("JOHN,\tSmith"));
+        assertEquals("o brien 2", ContactDeduplicator.normalizeName("O'Brien #2"));
+    }
+
+    @Test
+    public void accentedLettersAreKept() {
+        assertEquals("zo\u00eb m\u00fcller", ContactDeduplicator.normalizeName("Zo\u00eb M\u00fcller"));
+        assertNotEquals(ContactDeduplicator.normalizeName("Zoe"), ContactDeduplicator.normalizeName("Zo\u00eb"));
+    }
+
+    @Test
+    public void emptyNamesNormalizeToEmpty() {
+        assertEquals("", ContactDeduplicator.normalizeName(null));
+        assertEquals("", ContactDeduplicator.normalizeName(""));
+        assertEquals("", ContactDeduplicator.normalizeName(" .,- "));
+    }
+
+    @Test
+    public void emailsIgnoreCaseAndSurroundingSpace() {
+        assertEquals("john.smith@example.com", ContactDeduplicator.normalizeEmail(" John.Smith@Example.COM "));
+        assertEquals("", ContactDeduplicator.normalizeEmail(null));
+    }
+
+    @Test
+    public void matchesAreDescribedByTheirKey() {
+        assertEquals("email john@example.com", ContactDeduplicator.describeKey("e:john@example.com"));
+        assertEquals("name john smith born 5/3/1990", ContactDeduplicator.describeKey("n:john smith|7368"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ContactExporterTest {
+    // Dates of birth as the edit screen writes them, plus free text accepted by the CSV import
+    private static final List<String> CONTACTS = Arrays.asList(
+            "John Smith|john@example.com|5/3/1990",
+            "Smith, Mary; Jr.|mary\\smith@example.com|29/2/2000",
+            "Linda Moore|linda@example.com|March 1985",
+            "Zed Taylor|zed@example.com|spring, 1970; maybe",
+            "Ann Lee|ann@example.com|unknown");
+
+    @Test
+    public void vCardBackupRestoresEveryContact() throws IOException {
+        StringWriter backup = new StringWriter();
+        for (String contact : CONTACTS) {
+            String[] fields = contact.split("\\|");
+            ContactExporter.writeVCard(backup, fields[0], fields[1], fields[2]);
+        }
+
+        assertEquals(CONTACTS, restore(backup.toString()));
+    }
+
+    @Test
+    public void csvBackupRestoresEveryContact() throws IOException {
+        StringWriter backup = new StringWriter();
+        backup.write("name,email,date_of_birth,avatar\r\n");
+        for (String contact : CONTACTS) {
+            String[] fields = contact.split("\\|");
+            ContactExporter.writeCsvRow(backup, AvatarConstants.DEFAULT_AVATAR_NUMBER, fields[0], fields[1], fields[2]);
+        }
+
+        assertEquals(CONTACTS, restore(backup.toString()));
+    }
+
+    private static List<String> restore(String backup) throws IOException {
+        List<String> restored = new ArrayList<>();
+        ContactImporter.ImportResult result = new ContactImporter(null, null).importContacts(
+                new ByteArrayInputStream(backup.getBytes(StandardCharsets.UTF_8)), -1,
+                (avatarId, name, email, dateOfBirth) -> restored.add(name + "|" + email + "|" + dateOfBirth));
+        assertEquals(0, result.skippedCount);
+        return restored;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ContactImporterTest {
+    @Test
+    public void splitsPlainFields() throws IOException {
+        assertEquals(Arrays.asList("John Smith", "john@example.com", "1/2/1990"), parse("John Smith,john@example.com,1/2/1990"));
+        assertEquals(Arrays.asList("a", "", ""), parse("a,,"));
+    }
+
+    @Test
+    public void quotedFieldsKeepCommasAndDoubledQuotes() throws IOException {
+        assertEquals(Arrays.asList("Smith, John", "say \"hi\"", "x"), parse("\"Smith, John\",\"say \"\"hi\"\"\",x"));
+        assertEquals(Arrays.asList("", "b"), parse("\"\",b"));
+    }
+
+    @Test
+    public void quotedFieldsContinueOnTheNextLine() throws IOException {
+        ContactImporter.BoundedLineReader reader = reader("lane\",john@example.com\nnext,row,1/1/2000");
+        assertEquals(Arrays.asList("John\nlane", "john@example.com"), ContactImporter.parseCsvLine("\"John", reader));
+        // The following record is left for the caller
+        assertEquals("next,row,1/1/2000", reader.readLine());
+    }
+
+    @Test
+    public void quoteLeftOpenAtTheEndOfTheFileFailsTheRecord() throws IOException {
+        assertNull(ContactImporter.parseCsvLine("\"John,john@example.com", reader("more,lines\nstill open")));
+    }
+
+    @Test
+    public void quoteLeftOpenStopsAtTheFieldLimit() throws IOException {
+        StringBuilder rest = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            rest.append("Name ").append(i).append(",name").append(i).append("@example.com,1/1/1990\n");
+        }
+        ContactImporter.BoundedLineReader reader = reader(rest.toString());
+        assertNull(ContactImporter.parseCsvLine("\"Stray quote,a@example.com,1/1/1990", reader));
+        // Only about a field's worth of the file was read into the failed record
+        String nextLine = reader.readLine();
+        int nextRow = Integer.parseInt(nextLine.substring("Name ".length(), nextLine.indexOf(',')));
+        assertTrue(nextRow > 0 && nextRow < 200);
+    }
+
+    @Test
+    public void fieldsUpToTheLimitAreKept() throws IOException {
+        char[] longName = new char[ContactImporter.MAX_FIELD_LENGTH];
+        Arrays.fill(longName, 'a');
+        String name = new String(longName);
+        assertEquals(Arrays.asList(name, "b"), parse(name + ",b"));
+        assertNull(parse(name + "a,b"));
+    }
+
+    @Test
+    public void linesEndAtAnyLineBreak() throws IOException {
+        ContactImporter.BoundedLineReader reader = reader("a\r\nb\rc\n\nd");
+        assertEquals("a", reader.readLine());
+        assertEquals("b", reader.readLine());
+        assertEquals("c", reader.readLine());
+        assertEquals("", reader.readLine());
+        assertEquals("d", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void overlongLinesAreCutAndReadPast() throws IOException {
+        ContactImporter.BoundedLineReader reader = new ContactImporter.BoundedLineReader(new StringReader("abcdef\nxyz"), 4);
+        assertEquals("abcd", reader.readLine());
+        assertTrue(reader.lastLineTooLong());
+        assertEquals("xyz", reader.readLine());
+        assertFalse(reader.lastLineTooLong());
+    }
+
+    // The line is far larger than anything the importer may buffer, only the next row should come through
+    @Test
+    public void csvRowOnAnOverlongLineIsSkipped() throws IOException {
+        InputStream input = concat(
+                text("name,email,date_of_birth\nBig,"),
+                repeat("a", 16 * 1024 * 1024),
+                text(",big@example.com,1/1/1990\nAnn,ann@example.com,2/2/1990\n"));
+        List<String> imported = new ArrayList<>();
+        ContactImporter.ImportResult result = importContacts(input, imported);
+
+        assertEquals(Collections.singletonList("Ann ann@example.com 2/2/1990"), imported);
+        assertEquals(1, result.importedCount);
+        assertEquals(1, result.skippedCount);
+    }
+
+    @Test
+    public void vCardWithAnEndlessFoldIsSkipped() throws IOException {
+        InputStream input = concat(
+                text("BEGIN:VCARD\r\nVERSION:3.0\r\nFN:Big\r\nEMAIL:big@example.com\r\nNOTE:x\r\nN:Big;"),
+                repeat("\r\n aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", 256 * 1024),
+                text("\r\nBDAY:1990-01-01\r\nEND:VCARD\r\n"),
+                text("BEGIN:VCARD\r\nFN:Ann\r\nEMAIL:ann@example.com\r\nBDAY:1990-02-02\r\nEND:VCARD\r\n"));
+        List<String> imported = new ArrayList<>();
+        ContactImporter.ImportResult result = importContacts(input, imported);
+
+        assertEquals(Collections.singletonList("Ann ann@example.com 2/2/1990"), imported);
+        assertEquals(1, result.skippedCount);
+    }
+
+    @Test
+    public void longPropertiesTheImporterDoesNotReadKeepTheCard() throws IOException {
+        InputStream input = concat(
+                text("BEGIN:VCARD\r\nFN:Ann\r\nPHOTO;ENCODING=b:"),
+                repeat("\r\n QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=", 4096),
+                text("\r\nEMAIL:ann@example.com\r\nBDAY:1990-02-02\r\nEND:VCARD\r\n"));
+        List<String> imported = new ArrayList<>();
+        importContacts(input, imported);
+
+        assertEquals(Collections.singletonList("Ann ann@example.com 2/2/1990"), imported);
+    }
+
+    static ContactImporter.ImportResult importContacts(InputStream input, List<String> imported) throws IOException {
+        return new ContactImporter(null, null).importContacts(input, -1,
+                (avatarId, name, email, dateOfBirth) -> imported.add(name + " " + email + " " + dateOfBirth));
+    }
+
+    private static List<String> parse(String line) throws IOException {
+        return ContactImporter.parseCsvLine(line, reader(""));
+    }
+
+    private static ContactImporter.BoundedLineReader reader(String text) {
+        return new ContactImporter.BoundedLineReader(new StringReader(text), ContactImporter.MAX_LINE_LENGTH);
+    }
+
+    private static InputStream text(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static InputStream concat(InputStream... parts) {
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(parts)));
+    }
+
+    // Generates the text as it is read, so the test itself does not hold the large input
+    private static InputStream repeat(String unit, int times) {
+        byte[] bytes = unit.getBytes(StandardCharsets.UTF_8);
+        long length = (long) bytes.length * times;
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                return position < length ? bytes[(int) (position++ % bytes.length)] : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (position >= length) {
+                    return -1;
+                }
+                int n = (int) Math.min(count, length - position);
+                for (int i = 0; i < n; i++) {
+                    buffer[offset + i] = bytes[(int) (position++ % bytes.length)];
+                }
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ContactNameIndexTest {
+    private ContactNameIndex index;
+
+    @Before
+    public void loadNames() {
+        index = new ContactNameIndex();
+        // Folded names in name order, equal names by ID
+        index.load(new String[]{"adam", "john smith", "john smith", "johnny", "jon", "mary"},
+                new int[]{4, 2, 5, 1, 6, 3}, 6);
+    }
+
+    @Test
+    public void prefixFindsTheRunOfNamesInOrder() {
+        assertEquals(Arrays.asList(2, 5, 1), index.findPrefix("John", 10));
+        assertEquals(Arrays.asList(2, 5, 1, 6), index.findPrefix("jo", 10));
+        assertEquals(Arrays.asList(2, 5), index.findPrefix("jo", 2));
+        assertEquals(Collections.emptyList(), index.findPrefix("k", 10));
+    }
+
+    @Test
+    public void sectionsStartAtTheirFirstName() {
+        assertEquals(0, index.getSectionPosition(0));
+        assertEquals(0, index.getSectionPosition(ContactNameIndex.SECTIONS.indexOf('A')));
+        assertEquals(1, index.getSectionPosition(ContactNameIndex.SECTIONS.indexOf('J')));
+        // K has no names, so it starts where M does
+        assertEquals(5, index.getSectionPosition(ContactNameIndex.SECTIONS.indexOf('K')));
+        assertEquals(6, index.getSectionPosition(ContactNameIndex.SECTIONS.indexOf('Z')));
+    }
+
+    // Positions in another sort order say nothing about the name index, rows are found by name and ID
+    @Test
+    public void changesInAnotherSortOrderAreFoundByName() {
+        apply(DatabaseHelper.SortOrder.EMAIL,
+                new ContactChanges.Change(ContactChanges.Type.DELETED, 5, null, 0, ContactChanges.NO_POSITION),
+                new ContactChanges.Change(ContactChanges.Type.UPDATED, 3, contact(3, "Brian"), 4, 1),
+                new ContactChanges.Change(ContactChanges.Type.INSERTED, 7, contact(7, "John Smith"),
+                        ContactChanges.NO_POSITION, 2));
+
+        assertEquals(Arrays.asList(2, 7, 1), index.findPrefix("john", 10));
+        assertEquals(Collections.singletonList(3), index.findPrefix("b", 10));
+        assertEquals(Collections.emptyList(), index.findPrefix("mary", 10));
+        assertEquals(2, index.getSectionPosition(ContactNameIndex.SECTIONS.indexOf('C')));
+    }
+
+    @Test
+    public void changesInNameOrderUseTheirPositions() {
+        apply(DatabaseHelper.SortOrder.NAME,
+                new ContactChanges.Change(ContactChanges.Type.DELETED, 2, null, 1, ContactChanges.NO_POSITION),
+                new ContactChanges.Change(ContactChanges.Type.INSERTED, 8, contact(8, "Jo"),
+                        ContactChanges.NO_POSITION, 1));
+
+        assertEquals(Arrays.asList(8, 5, 1, 6), index.findPrefix("jo", 10));
+        // The deleted contact is gone from the lookup by ID as well
+        apply(DatabaseHelper.SortOrder.EMAIL,
+                new ContactChanges.Change(ContactChanges.Type.DELETED, 5, null, 0, ContactChanges.NO_POSITION));
+        assertEquals(Arrays.asList(8, 1, 6), index.findPrefix("jo", 10));
+    }
+
+    private void apply(DatabaseHelper.SortOrder sortOrder, ContactChanges.Change... changes) {
+        index.applyChanges(null, new ContactChanges(1, false, sortOrder, Arrays.asList(changes)));
+    }
+
+    private static Contact contact(int contactId, String name) {
+        return new Contact(contactId, 1, name, name.toLowerCase() + "@example.com", null, null);
+    }
+}
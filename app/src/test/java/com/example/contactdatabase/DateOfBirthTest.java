@@ -0,0 +1,44 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DateOfBirthTest {
+    @Test
+    public void parsesDaysSinceTheEpoch() {
+        assertEquals(Long.valueOf(0), DateOfBirth.parseEpochDay("1/1/1970"));
+        assertEquals(Long.valueOf(1), DateOfBirth.parseEpochDay("2/1/1970"));
+        assertEquals(Long.valueOf(-1), DateOfBirth.parseEpochDay("31/12/1969"));
+        assertEquals(Long.valueOf(11016), DateOfBirth.parseEpochDay("29/2/2000"));
+        assertEquals(Long.valueOf(7368), DateOfBirth.parseEpochDay(" 5 / 3 / 1990 "));
+    }
+
+    @Test
+    public void rejectsDatesThatDoNotExist() {
+        assertNull(DateOfBirth.parseEpochDay("29/2/1900"));
+        assertNull(DateOfBirth.parseEpochDay("31/4/2020"));
+        assertNull(DateOfBirth.parseEpochDay("0/1/2020"));
+        assertNull(DateOfBirth.parseEpochDay("1/13/2020"));
+        assertNull(DateOfBirth.parseEpochDay("1990-03-05"));
+        assertNull(DateOfBirth.parseEpochDay("a/b/c"));
+        assertNull(DateOfBirth.parseEpochDay(null));
+    }
+
+    @Test
+    public void monthDayOrdersBirthdaysByTimeOfYear() {
+        assertEquals(305, DateOfBirth.toMonthDay(DateOfBirth.parseEpochDay("5/3/1990")));
+        assertEquals(101, DateOfBirth.toMonthDay(0));
+        assertEquals(1231, DateOfBirth.toMonthDay(-1));
+        assertEquals(229, DateOfBirth.toMonthDay(DateOfBirth.parseEpochDay("29/2/2000")));
+    }
+
+    @Test
+    public void formatReversesParse() {
+        for (long epochDay = -40000; epochDay <= 40000; epochDay += 37) {
+            assertEquals(Long.valueOf(epochDay), DateOfBirth.parseEpochDay(DateOfBirth.format(epochDay)));
+        }
+        assertEquals("5/3/1990", DateOfBirth.format(7368));
+    }
+}
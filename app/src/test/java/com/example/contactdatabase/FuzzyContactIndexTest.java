@@ -0,0 +1,157 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class FuzzyContactIndexTest {
+    private FuzzyContactIndex.Words words;
+
+    @Before
+    public void createWords() {
+        words = new FuzzyContactIndex.Words();
+        words.addContact(1, "John Smith", "john.smith@example.com");
+        words.addContact(2, "Jonah Smithers", "jonah@example.com");
+        words.addContact(3, "Mary Brown", "mary@example.com");
+    }
+
+    @Test
+    public void distanceCountsOneTypoPerEdit() {
+        assertEquals(0, FuzzyContactIndex.distance("john", "john", 1, false));
+        assertEquals(1, FuzzyContactIndex.distance("jahn", "john", 1, false));
+        assertEquals(1, FuzzyContactIndex.distance("jon", "john", 1, false));
+        assertEquals(1, FuzzyContactIndex.distance("johnn", "john", 1, false));
+        assertEquals(2, FuzzyContactIndex.distance("jxhx", "john", 2, false));
+    }
+
+    @Test
+    public void distanceCountsSwappedLettersAsOneTypo() {
+        assertEquals(1, FuzzyContactIndex.distance("jonh", "john", 1, false));
+        assertEquals(2, FuzzyContactIndex.distance("ojnh", "john", 2, false));
+    }
+
+    @Test
+    public void distanceStopsPastTheAllowedTypos() {
+        assertEquals(2, FuzzyContactIndex.distance("jxxn", "john", 1, false));
+        assertEquals(2, FuzzyContactIndex.distance("jo", "johnson", 1, false));
+        assertEquals(3, FuzzyContactIndex.distance("abcdef", "uvwxyz", 2, false));
+    }
+
+    @Test
+    public void prefixDistanceIsToTheClosestStart() {
+        assertEquals(0, FuzzyContactIndex.distance("smi", "smithers", 1, true));
+        assertEquals(1, FuzzyContactIndex.distance("smt", "smithers", 1, true));
+        assertEquals(1, FuzzyContactIndex.distance("smiht", "smithers", 1, true));
+        assertEquals(2, FuzzyContactIndex.distance("smxyt", "smithers", 1, true));
+    }
+
+    @Test
+    public void searchRanksFewerTyposFirst() {
+        // "john" is one swap away, "jonah" needs one more letter on top
+        assertEquals(Arrays.asList(1, 2), words.search(new String[]{"jonh"}, 10));
+        assertEquals(Collections.singletonList(3), words.search(new String[]{"brwn"}, 10));
+    }
+
+    @Test
+    public void searchNeedsEveryQueryWord() {
+        assertEquals(Collections.singletonList(3), words.search(new String[]{"mary", "brwon"}, 10));
+        assertEquals(Collections.emptyList(), words.search(new String[]{"john", "brwon"}, 10));
+    }
+
+    @Test
+    public void shortWordsOnlyMatchExactly() {
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(words.search(new String[]{"jo"}, 10)));
+        assertEquals(Collections.emptyList(), words.search(new String[]{"jx"}, 10));
+    }
+
+    // The trigram filter only skips words the edit distance would reject anyway
+    @Test
+    public void trigramFilterKeepsEveryMatchWithinTheTypos() {
+        FuzzyContactIndex.Words singleWords = new FuzzyContactIndex.Words();
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        for (int contactId = 0; contactId < 2000; contactId++) {
+            String name = randomWord(random, 3 + random.nextInt(8));
+            names.add(name);
+            singleWords.addContact(contactId, name, null);
+        }
+        for (int query = 0; query < 300; query++) {
+            // Typos of a known name, so most queries have matches
+            String queryWord = addTypos(random, names.get(random.nextInt(names.size())));
+            int maxTypos = queryWord.length() < 3 ? 0 : queryWord.length() < 6 ? 1 : 2;
+            HashSet<Integer> expected = new HashSet<>();
+            for (int contactId = 0; contactId < names.size(); contactId++) {
+                if (FuzzyContactIndex.distance(queryWord, names.get(contactId), maxTypos, true) <= maxTypos) {
+                    expected.add(contactId);
+                }
+            }
+            assertEquals(queryWord, expected,
+                    new HashSet<>(singleWords.search(new String[]{queryWord}, names.size())));
+        }
+    }
+
+    @Test
+    public void deletedContactsLeaveTheirWords() {
+        words.addContact(4, "Linda Moore", "linda@example.com");
+        apply(new ContactChanges.Change(ContactChanges.Type.DELETED, 2, null, 1, ContactChanges.NO_POSITION));
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 3, 4)), new HashSet<>(words.search(new String[]{"example"}, 10)));
+        assertEquals(Collections.singletonList(1), words.search(new String[]{"jonh"}, 10));
+
+        // Contact 4 took the deleted contact's place in the shared word lists, so it has to come out cleanly too
+        apply(new ContactChanges.Change(ContactChanges.Type.DELETED, 4, null, 2, ContactChanges.NO_POSITION));
+        assertEquals(new HashSet<>(Arrays.asList(1, 3)), new HashSet<>(words.search(new String[]{"example"}, 10)));
+        assertEquals(Collections.emptyList(), words.search(new String[]{"linda"}, 10));
+    }
+
+    @Test
+    public void updatedContactsAreFoundByTheirNewWords() {
+        Contact renamed = new Contact(1, 1, "Zed Taylor", "zed@test.org", null, null);
+        apply(new ContactChanges.Change(ContactChanges.Type.UPDATED, 1, renamed, 0, 2));
+
+        assertEquals(Collections.singletonList(1), words.search(new String[]{"taylr"}, 10));
+        assertEquals(Collections.singletonList(2), words.search(new String[]{"jonh"}, 10));
+        assertEquals(new HashSet<>(Arrays.asList(2, 3)), new HashSet<>(words.search(new String[]{"example"}, 10)));
+    }
+
+    private void apply(ContactChanges.Change change) {
+        words.apply(new ContactChanges(1, false, null, Collections.singletonList(change)));
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            // A small alphabet so many words share trigrams
+            word.append((char) ('a' + random.nextInt(6)));
+        }
+        return word.toString();
+    }
+
+    private static String addTypos(Random random, String word) {
+        StringBuilder typed = new StringBuilder(word);
+        for (int typo = random.nextInt(3); typo > 0 && typed.length() > 1; typo--) {
+            int position = random.nextInt(typed.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    typed.setCharAt(position, (char) ('a' + random.nextInt(6)));
+                    break;
+                case 1:
+                    typed.deleteCharAt(position);
+                    break;
+                default:
+                    typed.insert(position, (char) ('a' + random.nextInt(6)));
+                    break;
+            }
+        }
+        // Sometimes only the start has been typed
+        return random.nextBoolean() ? typed.substring(0, Math.max(1, typed.length() - 2)) : typed.toString();
+    }
+}
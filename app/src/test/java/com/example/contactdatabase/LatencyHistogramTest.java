@@ -0,0 +1,65 @@
+package com.example.contactdatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void smallValuesGetABucketEach() {
+        for (int nanos = 0; nanos < 8; nanos++) {
+            assertEquals(nanos, LatencyHistogram.bucketIndex(nanos));
+            assertEquals(nanos, LatencyHistogram.bucketUpperBound(nanos));
+        }
+    }
+
+    @Test
+    public void everyValueFallsInsideItsBucket() {
+        int previousIndex = -1;
+        for (long nanos = 1; nanos > 0 && nanos < Long.MAX_VALUE / 2; nanos += Math.max(1, nanos / 7)) {
+            int index = LatencyHistogram.bucketIndex(nanos);
+            assertTrue(index >= previousIndex);
+            assertTrue(nanos <= LatencyHistogram.bucketUpperBound(index));
+            assertTrue(nanos > LatencyHistogram.bucketUpperBound(index - 1));
+            previousIndex = index;
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinAnEighthOfTheirValues() {
+        for (int index = 9; index < LatencyHistogram.bucketIndex(Long.MAX_VALUE); index++) {
+            long lowerBound = LatencyHistogram.bucketUpperBound(index - 1) + 1;
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upperBound - lowerBound < lowerBound / 8);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesNeverUnderstate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(millis * 1_000_000);
+        }
+        histogram.record(-1);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500_000, histogram.getMeanNanos());
+        long median = histogram.getPercentileNanos(0.5);
+        assertTrue(median >= 500_000_000 && median <= 562_500_000);
+        long p95 = histogram.getPercentileNanos(0.95);
+        assertTrue(p95 >= 950_000_000 && p95 <= 1_000_000_000);
+        assertEquals(1_000_000_000, histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+    }
+}
@@ -0,0 +1,44 @@
+plugins {
+    alias(libs.plugins.android.test)
+}
+
+// Microbenchmarks for the app's database paths, kept out of the app module
+// so its own instrumentation tests keep the standard runner and the debug build
+android {
+    namespace = "com.example.contactdatabase.benchmark"
+    compileSdk = 36
+
+    defaultConfig {
+        minSdk = 24
+        targetSdk = 36
+
+        // Locks clocks and warms up so benchmark results are comparable between runs
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
+    }
+
+    // The benchmarks run in the app's process and measure the app's non-debuggable benchmark build
+    targetProjectPath = ":app"
+
+    buildTypes {
+        create("benchmark") {
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+        }
+    }
+    compileOptions {
+        sourceCompatibility = JavaVersion.VERSION_11
+        targetCompatibility = JavaVersion.VERSION_11
+    }
+}
+
+// Only the benchmark build is worth measuring
+androidComponents {
+    beforeVariants { variantBuilder ->
+        variantBuilder.enable = variantBuilder.buildType == "benchmark"
+    }
+}
+
+dependencies {
+    implementation(libs.androidx.junit)
+    implementation(libs.androidx.benchmark.junit4)
+}
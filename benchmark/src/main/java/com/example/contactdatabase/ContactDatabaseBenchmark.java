@@ -0,0 +1,246 @@
+package com.example.contactdatabase;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Measures the DatabaseHelper paths behind the contact list, search and delete at 1k, 10k and 100k contacts
+// Contacts are generated from a fixed seed into a separate database file, so runs are comparable between commits
+// Run on a physical device with ./gradlew :benchmark:connectedBenchmarkAndroidTest, results are written to the device and the build output
+@RunWith(Parameterized.class)
+public class ContactDatabaseBenchmark {
+    private static final String DATABASE_FILE = "contact_benchmark_database";
+    // Table name used by DatabaseHelper
+    private static final String CONTACT_TABLE = "contact_details_database";
+    private static final long SEED = 42;
+    private static final int BULK_INSERT_SIZE = 1000;
+    private static final int BULK_DELETE_SIZE = 1000;
+    // Small enough for the deleted rows to get list positions, like a typical selection
+    private static final int SELECTED_DELETE_SIZE = 100;
+    // Search typed one character at a time
+    private static final String TYPED_QUERY = "john smi";
+    // Swapped letters in both words, the last still being typed
+    private static final String MISTYPED_QUERY = "jonh smiht";
+
+    private static final String[] FIRST_NAMES = {
+            "James", "John", "Robert", "Michael", "William", "David", "Mary", "Patricia", "Jennifer", "Linda",
+            "Elizabeth", "Susan", "Jessica", "Sarah", "Karen", "Nguyen", "Anh", "Minh", "Johan", "Jonah"};
+    private static final String[] LAST_NAMES = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Tran", "Le", "Pham", "Smithers", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson"};
+
+    private static DatabaseHelper databaseHelper;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter
+    public int contactCount;
+
+    @Parameterized.Parameters(name = "contacts={0}")
+    public static Collection<Object[]> contactCounts() {
+        return Arrays.asList(new Object[][]{{1000}, {10000}, {100000}});
+    }
+
+    @BeforeClass
+    public static void openDatabase() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_FILE);
+        databaseHelper = new DatabaseHelper(context, DATABASE_FILE);
+    }
+
+    @AfterClass
+    public static void deleteDatabase() {
+        databaseHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DATABASE_FILE);
+    }
+
+    // Seeding 100k contacts is slow, so the table is only rebuilt when the size changes
+    @Before
+    public void seedContacts() {
+        if (databaseHelper.getContactCount() == contactCount) {
+            return;
+        }
+        databaseHelper.deleteAllContactsExcept(Collections.emptyList());
+        purgeDeletedContacts();
+        insertContacts(new Random(SEED), contactCount);
+    }
+
+    @Test
+    public void insertContact() {
+        Random random = new Random(SEED);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            databaseHelper.insertContactDetails(1, randomName(random), "new@example.com", "1/1/1990", null);
+            state.pauseTiming();
+            deleteContactsAddedAfter(contactCount);
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void bulkInsertContacts() {
+        Random random = new Random(SEED);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            insertContacts(random, BULK_INSERT_SIZE);
+            state.pauseTiming();
+            deleteContactsAddedAfter(contactCount);
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void loadAllContacts() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            databaseHelper.getAllContacts();
+        }
+    }
+
+    // A page from the middle of the list, like scrolling to it
+    @Test
+    public void loadContactsPage() {
+        int offset = contactCount / 2;
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            databaseHelper.getContactsPage(offset, ContactPagedList.PAGE_SIZE);
+        }
+    }
+
+    // The same page read by seeking from the row before it, like scrolling down to it
+    @Test
+    public void seekContactsPage() {
+        int rowBeforeId = databaseHelper.getContactsPage(contactCount / 2 - 1, 1).get(0).getId();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            databaseHelper.getContactsPageAfter(DatabaseHelper.SortOrder.NAME, rowBeforeId, ContactPagedList.PAGE_SIZE);
+        }
+    }
+
+    // Each iteration is one keystroke, so the result is the latency per keystroke
+    @Test
+    public void searchPerKeystroke() {
+        List<String> keystrokes = new ArrayList<>();
+        for (int length = 1; length <= TYPED_QUERY.length(); length++) {
+            keystrokes.add(TYPED_QUERY.substring(0, length));
+        }
+        int keystroke = 0;
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            databaseHelper.searchContacts(keystrokes.get(keystroke));
+            keystroke = (keystroke + 1) % keystrokes.size();
+        }
+    }
+
+    // A query with typos against the trigram index, built once beforehand
+    @Test
+    public void fuzzySearch() {
+        FuzzyContactIndex fuzzyIndex = new FuzzyContactIndex();
+        fuzzyIndex.build(databaseHelper);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            fuzzyIndex.search(MISTYPED_QUERY, FuzzyContactIndex.RESULT_LIMIT);
+        }
+    }
+
+    // One edited contact applied to the trigram index, every contact shares the words of the email domain
+    @Test
+    public void updateFuzzyIndex() {
+        FuzzyContactIndex fuzzyIndex = new FuzzyContactIndex();
+        fuzzyIndex.build(databaseHelper);
+        Contact contact = databaseHelper.getContactsPage(contactCount / 2, 1).get(0);
+        ContactChanges changes = new ContactChanges(0, false, DatabaseHelper.SortOrder.NAME, Collections.singletonList(
+                new ContactChanges.Change(ContactChanges.Type.UPDATED, contact.getId(), contact, 0, 0)));
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            fuzzyIndex.applyChanges(changes);
+        }
+    }
+
+    @Test
+    public void deleteSelectedContacts() {
+        measureDelete(SELECTED_DELETE_SIZE);
+    }
+
+    @Test
+    public void bulkDeleteContacts() {
+        measureDelete(BULK_DELETE_SIZE);
+    }
+
+    // Delete freshly inserted contacts so the table size stays the same every iteration
+    private void measureDelete(int deleteCount) {
+        Random random = new Random(SEED);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            insertContacts(random, deleteCount);
+            List<Integer> contactIds = getNewestContactIds(deleteCount);
+            state.resumeTiming();
+
+            databaseHelper.deleteContactsByIds(contactIds);
+
+            state.pauseTiming();
+            purgeDeletedContacts();
+            state.resumeTiming();
+        }
+    }
+
+    private static void insertContacts(Random random, int count) {
+        try (DatabaseHelper.BulkInsert bulkInsert = databaseHelper.beginBulkInsert()) {
+            for (int i = 0; i < count; i++) {
+                String name = randomName(random);
+                bulkInsert.insert(1 + random.nextInt(AvatarConstants.AVATAR_RESOURCES.length), name,
+                        name.toLowerCase().replace(' ', '.') + i + "@example.com",
+                        (1 + random.nextInt(28)) + "/" + (1 + random.nextInt(12)) + "/" + (1950 + random.nextInt(60)));
+            }
+        }
+    }
+
+    private static String randomName(Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    private static List<Integer> getNewestContactIds(int count) {
+        List<Integer> contactIds = new ArrayList<>(count);
+        try (Cursor results = databaseHelper.getReadableDatabase().rawQuery(
+                "SELECT id FROM " + CONTACT_TABLE + " ORDER BY id DESC LIMIT " + count, null)) {
+            while (results.moveToNext()) {
+                contactIds.add(results.getInt(0));
+            }
+        }
+        return contactIds;
+    }
+
+    // Remove the contacts a benchmark added on top of the seeded ones
+    private static void deleteContactsAddedAfter(int seededCount) {
+        int addedCount = databaseHelper.getContactCount() - seededCount;
+        if (addedCount > 0) {
+            databaseHelper.deleteContactsByIds(getNewestContactIds(addedCount));
+            purgeDeletedContacts();
+        }
+    }
+
+    // Deletes only move contacts to the trash, so empty it before the table size or newest IDs are read again
+    private static void purgeDeletedContacts() {
+        databaseHelper.purgeDeletedContacts(Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+}